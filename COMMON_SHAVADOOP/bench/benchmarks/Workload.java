@@ -0,0 +1,20 @@
+
+package benchmarks;
+
+// Interface of a hot path measured by the benchmarks. The classes of Shavadoop are in the default
+// package, which JMH doesn't accept for benchmarks and which a named package can't import: the
+// workloads are written in the default package, next to the classes that they measure, and the
+// benchmarks create them by name.
+public interface Workload {
+
+
+//	Prepares the inputs of the workload from a corpus, out of the measured time.
+	public void setUp(byte[] corpus) throws Exception;
+
+//	Runs the hot path once. The result is returned, so that the JIT can't remove the work.
+	public Object run() throws Exception;
+
+//	Removes the files created by the workload.
+	public void tearDown() throws Exception;
+
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+// Modules to import.
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+// JMH benchmarks of workloads, run on Zipfian corpora of several sizes, shared by the benchmarks of
+// the master (MasterBenchmarks) and of the slave (SlaveBenchmarks), which give the names of their
+// workloads. Each workload is measured on each corpus size, in operations (whole corpora) per
+// second: the throughput in bytes per second is the score times the corpus size. The main methods
+// add the GC profiler, which reports the allocation rate, and write the results as JSON, so that
+// they can be compared between builds.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Thread)
+public abstract class WorkloadBenchmarks {
+
+
+//	Seed of the corpora.
+	private static final long SEED = 42;
+
+
+//	Parameter of the benchmark: the size of the corpus in bytes (1 MB and 16 MB).
+	@Param({"1048576", "16777216"})
+	public int corpusSize;
+
+
+//	Fields.
+	private Workload workload; // Workload created from its name.
+
+
+//	Returns the name of the class of the workload being measured, in the default package.
+	protected abstract String getWorkloadClassName();
+
+
+//	Runs the benchmarks of the given class. The options given on the command line are added to the
+//	default ones.
+	protected static void runBenchmarks(Class<? extends WorkloadBenchmarks> benchmarksClass,
+			String defaultResultFile, String[] args) throws Exception {
+
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions)
+				.include(benchmarksClass.getName())
+				.addProfiler(GCProfiler.class);
+		if (!commandLineOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLineOptions.getResult().hasValue()) {
+			options.result(defaultResultFile);
+		}
+		new Runner(options.build()).run();
+	}
+
+
+//	Creates the workload and its inputs once for each combination of parameters.
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		this.workload = (Workload) Class.forName(this.getWorkloadClassName())
+				.getDeclaredConstructor().newInstance();
+		this.workload.setUp(ZipfianCorpus.generate(this.corpusSize, SEED));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		this.workload.tearDown();
+	}
+
+
+	@Benchmark
+	public Object run() throws Exception {
+		return this.workload.run();
+	}
+
+}
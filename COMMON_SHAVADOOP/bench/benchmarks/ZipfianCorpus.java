@@ -0,0 +1,114 @@
+
+package benchmarks;
+
+// Modules to import.
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+
+// Class that generates French-like texts for the benchmarks. The frequencies of the words follow
+// Zipf's law, like in a real text: the word of rank r appears about 1 / r times as often as the
+// most frequent one. The most frequent words are common words of the Tokenizer (removed by the
+// word count), the others are made of syllables with accents, so the UTF-8 decoding and the
+// folding are measured too. The text is cut into sentences and lines. A corpus depends only on its
+// size and its seed, so every run of the benchmarks measures the same text.
+public class ZipfianCorpus {
+
+
+//	Most frequent words, in the order of their rank.
+	private static final String[] COMMON_WORDS = new String[] {
+		"de", "la", "le", "et", "les", "des", "en", "un", "du", "une", "que", "est", "pour", "qui",
+		"dans", "a", "par", "plus", "pas", "au", "sur", "ne", "se", "ce", "il", "sont", "avec"
+	};
+
+//	Syllables of the other words.
+	private static final String[] SYLLABLES = new String[] {
+		"ba", "ré", "mi", "fa", "so", "la", "ti", "é", "tra", "on", "ou", "an", "in", "que", "cha",
+		"è", "pê", "ço", "gne", "ri", "mo", "ver", "di", "sé", "ble", "to", "ment", "peu", "lu"
+	};
+
+//	Number of different words of a corpus.
+	private static final int VOCABULARY_SIZE = 100000;
+
+//	Exponent of Zipf's law.
+	private static final double EXPONENT = 1.0;
+
+
+//	Returns a text of exactly the given number of bytes, encoded in UTF-8. The end of the text is
+//	padded with spaces, so that no character is cut.
+	public static byte[] generate(int size, long seed) {
+
+		Random random = new Random(seed);
+		byte[][] vocabulary = createVocabulary(random);
+
+//		Cumulative probabilities of the ranks, for drawing a rank with a binary search.
+		double[] cumulativeProbabilities = new double[VOCABULARY_SIZE];
+		double sum = 0;
+		for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+			sum = sum + 1 / Math.pow(rank + 1, EXPONENT);
+			cumulativeProbabilities[rank] = sum;
+		}
+
+		ByteArrayOutputStream text = new ByteArrayOutputStream(size);
+		int wordsInSentence = 0;
+		int lineLength = 0;
+		while (true) {
+			int rank = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble() * sum);
+			byte[] word = vocabulary[rank >= 0 ? rank : Math.min(-rank - 1, VOCABULARY_SIZE - 1)];
+			if (text.size() + word.length + 2 > size) {
+				break;
+			}
+
+//			A sentence starts with a capital letter and ends with a period, a line ends after
+//			about 80 bytes.
+			if (wordsInSentence == 0 && word[0] >= 'a' && word[0] <= 'z') {
+				text.write(word[0] - 'a' + 'A');
+				text.write(word, 1, word.length - 1);
+			} else {
+				text.write(word, 0, word.length);
+			}
+			lineLength = lineLength + word.length + 1;
+			wordsInSentence++;
+			if (wordsInSentence > 4 && random.nextInt(12) == 0) {
+				text.write('.');
+				wordsInSentence = 0;
+			} else if (random.nextInt(20) == 0) {
+				text.write(',');
+			}
+			if (lineLength > 80) {
+				text.write('\n');
+				lineLength = 0;
+			} else {
+				text.write(' ');
+			}
+		}
+
+		byte[] bytes = Arrays.copyOf(text.toByteArray(), size);
+		Arrays.fill(bytes, text.size(), size, (byte) ' ');
+		return bytes;
+	}
+
+
+//	Creates the words of the corpus, by rank, as UTF-8 bytes: the common words first, then words
+//	of one to four syllables. Two ranks may have the same word, like homonyms.
+	private static byte[][] createVocabulary(Random random) {
+
+		byte[][] vocabulary = new byte[VOCABULARY_SIZE][];
+		for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+			if (rank < COMMON_WORDS.length) {
+				vocabulary[rank] = COMMON_WORDS[rank].getBytes(StandardCharsets.UTF_8);
+				continue;
+			}
+			StringBuilder word = new StringBuilder();
+			int numberOfSyllables = 1 + random.nextInt(4);
+			for (int i = 0; i < numberOfSyllables; i++) {
+				word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+			}
+			vocabulary[rank] = word.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return vocabulary;
+	}
+
+}
@@ -0,0 +1,44 @@
+
+// Modules to import.
+import java.util.Arrays;
+
+
+// Class of the constants of the block format of the UMx and RMx files, written by the BlockWriter
+// of the slaves and read by BlockReader, and of the order of the keys in these files. Its source
+// is shared by the master and the slave, so that they can't disagree on the format.
+public class BlockFormat {
+
+
+//	Magic number at the start of each block ("SHVB").
+	public static final int BLOCK_MAGIC = 0x53485642;
+
+//	Codecs of the blocks.
+	public static final byte CODEC_STORED = 0;
+	public static final byte CODEC_DEFLATE = 1;
+
+
+//	Compares two keys by their UTF-8 bytes taken as unsigned, which is the order of their code
+//	points: a key comes before the longer keys that start with it. The blocks of the UMx files are
+//	sorted in this order, and the couples of the runs which have the same count too.
+	public static int compareKeys(byte[] bytes1, int offset1, int length1, byte[] bytes2,
+			int offset2, int length2) {
+		return Arrays.compareUnsigned(bytes1, offset1, offset1 + length1, bytes2, offset2,
+				offset2 + length2);
+	}
+
+//	Compares two keys given as Strings in the same order, by their code points.
+	public static int compareKeys(String key1, String key2) {
+
+		int i = 0;
+		while (i < key1.length() && i < key2.length()) {
+			int codePoint1 = key1.codePointAt(i);
+			int codePoint2 = key2.codePointAt(i);
+			if (codePoint1 != codePoint2) {
+				return Integer.compare(codePoint1, codePoint2);
+			}
+			i = i + Character.charCount(codePoint1);
+		}
+		return Integer.compare(key1.length(), key2.length());
+	}
+
+}
@@ -0,0 +1,180 @@
+
+// Modules to import.
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+// Class that reads the couples (key, count) of a UMx or RMx file written by the BlockWriter of a
+// slave, one block at a time. The key of the current couple is rebuilt in a buffer reused for every
+// couple, so reading a file creates no String unless getKey() is called. Shared by the master (RMx
+// files) and the slave (UMx files and spilled runs).
+public class BlockReader {
+
+
+//	Fields.
+	private DataInputStream input; // Stream of the file.
+	private ValueCodec valueCodec; // Encoding of the counts.
+	private byte[] storedBytes; // Bytes of the current block, as stored in the file.
+	private byte[] rawBytes; // Bytes of the current block, uncompressed.
+	private Inflater inflater; // Decompressor, reused for every block.
+	private int remainingCouples; // Number of couples of the current block not read yet.
+	private int keyPosition; // Position of the next key in rawBytes.
+	private int countPosition; // Position of the next count in rawBytes.
+	private byte[] key; // UTF-8 bytes of the current key.
+	private int keyLength; // Length of the current key.
+	private long[] count; // Count of the current key, the only value of the array.
+
+
+//	Constructor. The counts are read with the codec of the job that wrote them.
+	public BlockReader(InputStream input, ValueCodec valueCodec) {
+
+		this.input = new DataInputStream(input);
+		this.valueCodec = valueCodec;
+		this.storedBytes = new byte[1 << 16];
+		this.rawBytes = new byte[1 << 16];
+		this.inflater = new Inflater();
+		this.remainingCouples = 0;
+		this.key = new byte[256];
+		this.count = new long[1];
+	}
+
+
+//	Getters of the current couple.
+	public byte[] getKeyBytes() {
+		return this.key;
+	}
+	public int getKeyLength() {
+		return this.keyLength;
+	}
+	public long getCount() {
+		return this.count[0];
+	}
+	public String getKey() {
+		return new String(this.key, 0, this.keyLength, StandardCharsets.UTF_8);
+	}
+
+
+//	Reads the next couple, and the next block if the current one has been read. Returns false at
+//	the end of the file.
+	public boolean next() throws IOException {
+
+		while (this.remainingCouples == 0) {
+			if (!this.readBlock()) {
+				return false;
+			}
+		}
+
+//		The key keeps the prefix it shares with the previous key, and gets its own suffix.
+		int shared = this.readRawVarint();
+		int suffixLength = this.readRawVarint();
+		if (shared + suffixLength > this.key.length) {
+			this.key = Arrays.copyOf(this.key, Math.max(this.key.length * 2, shared + suffixLength));
+		}
+		System.arraycopy(this.rawBytes, this.keyPosition, this.key, shared, suffixLength);
+		this.keyPosition = this.keyPosition + suffixLength;
+		this.keyLength = shared + suffixLength;
+		this.countPosition = this.valueCodec.read(this.rawBytes, this.countPosition, this.count, 0);
+		this.remainingCouples--;
+		return true;
+	}
+
+
+//	Closes the file.
+	public void close() throws IOException {
+		this.inflater.end();
+		this.input.close();
+	}
+
+
+//	Reads and uncompresses the next block. Returns false at the end of the file.
+	private boolean readBlock() throws IOException {
+
+		int magic;
+		try {
+			magic = this.input.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		if (magic != BlockFormat.BLOCK_MAGIC) {
+			throw new IOException("Not a block of couples (magic " + Integer.toHexString(magic)
+					+ ")");
+		}
+		byte codec = this.input.readByte();
+		int numberOfCouples = this.readVarint();
+		int keysLength = this.readVarint();
+		int rawLength = this.readVarint();
+		int storedLength = this.readVarint();
+
+		if (this.rawBytes.length < rawLength) {
+			this.rawBytes = new byte[rawLength];
+		}
+		if (codec == BlockFormat.CODEC_STORED) {
+			this.input.readFully(this.rawBytes, 0, rawLength);
+		} else if (codec == BlockFormat.CODEC_DEFLATE) {
+			if (this.storedBytes.length < storedLength) {
+				this.storedBytes = new byte[storedLength];
+			}
+			this.input.readFully(this.storedBytes, 0, storedLength);
+			this.inflater.reset();
+			this.inflater.setInput(this.storedBytes, 0, storedLength);
+			try {
+				int inflatedLength = 0;
+				while (inflatedLength < rawLength && !this.inflater.finished()) {
+					inflatedLength = inflatedLength + this.inflater.inflate(this.rawBytes,
+							inflatedLength, rawLength - inflatedLength);
+				}
+				if (inflatedLength != rawLength) {
+					throw new IOException("Truncated block");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupted block", e);
+			}
+		} else {
+			throw new IOException("Unknown codec " + codec);
+		}
+
+		this.remainingCouples = numberOfCouples;
+		this.keyPosition = 0;
+		this.countPosition = keysLength;
+		return true;
+	}
+
+
+//	Reads a varint from the current block, at the position of the keys.
+	private int readRawVarint() {
+
+		int position = this.keyPosition;
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = this.rawBytes[position++];
+			value = value | (b & 0x7F) << shift;
+			shift = shift + 7;
+		} while (b < 0);
+		this.keyPosition = position;
+		return value;
+	}
+
+
+//	Reads a varint from the file.
+	private int readVarint() throws IOException {
+
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = this.input.readByte();
+			value = value | (b & 0x7F) << shift;
+			shift = shift + 7;
+		} while (b < 0);
+		return value;
+	}
+
+}
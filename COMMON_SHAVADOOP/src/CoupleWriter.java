@@ -0,0 +1,14 @@
+
+// Modules to import.
+import java.io.IOException;
+
+
+// Interface of the outputs of the couples (key, count) merged by RunMerger: the BlockWriter of a
+// run on a slave, or the text result file on the master.
+public interface CoupleWriter {
+
+
+//	Writes a couple whose key is given as UTF-8 bytes, at the given offset and of the given length.
+	public void write(byte[] bytes, int offset, int length, long count) throws IOException;
+
+}
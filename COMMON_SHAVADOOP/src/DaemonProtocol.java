@@ -0,0 +1,95 @@
+
+// Modules to import.
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+
+
+// Class of the protocol between the DaemonTransport of the master and the SlaveDaemon of a slave.
+// A task descriptor is the magic number, the token, the number of arguments and the arguments of
+// Slave.jar. The daemon then sends the outputs of the job and closes the connection when the job
+// has ended, while the master can send messages to the job after the descriptor.
+// A daemon runs jobs which read and write the files of the user, so it only runs those of the
+// programs of the user: the token is a secret kept in a file of the home directory of the user,
+// readable only by the user, and shared by the machines like the working directory. The first
+// daemon started creates it.
+public class DaemonProtocol {
+
+
+//	Magic number at the start of a task descriptor ("SHAV").
+	public static final int MAGIC_NUMBER = 0x53484156;
+
+//	Number of random bytes of a token, written in hexadecimal in its file.
+	private static final int TOKEN_BYTES = 32;
+
+
+//	Returns the file of the token.
+	public static File getTokenFile() {
+		return new File(System.getProperty("user.home"), ".shavadoop/daemon.token");
+	}
+
+
+//	Creates the file of the token with a new random token, unless it exists. The token is written
+//	to a temporary file first, then linked to its name, so a daemon never reads a partial token and
+//	two daemons started at the same time keep the same one.
+	public static void createToken() throws IOException {
+
+		Path tokenPath = getTokenFile().toPath();
+		if (Files.exists(tokenPath)) {
+			return;
+		}
+		Files.createDirectories(tokenPath.getParent(), PosixFilePermissions.asFileAttribute(
+				PosixFilePermissions.fromString("rwx------")));
+
+		byte[] tokenBytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(tokenBytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : tokenBytes) {
+			token.append(String.format("%02x", b & 0xFF));
+		}
+		Path temporaryPath = Files.createTempFile(tokenPath.getParent(), "daemon", ".token",
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		try {
+			Files.write(temporaryPath, token.toString().getBytes(StandardCharsets.US_ASCII));
+			Files.createLink(tokenPath, temporaryPath);
+		} catch (FileAlreadyExistsException e) {
+//			Another daemon has created it first.
+		} finally {
+			Files.delete(temporaryPath);
+		}
+	}
+
+
+//	Reads the token. Throws an IOException if the file doesn't exist, or if other users can read
+//	or write it.
+	public static String readToken() throws IOException {
+
+		Path tokenPath = getTokenFile().toPath();
+		Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(tokenPath);
+		if (permissions.contains(PosixFilePermission.GROUP_READ) 
+				|| permissions.contains(PosixFilePermission.GROUP_WRITE)
+				|| permissions.contains(PosixFilePermission.OTHERS_READ)
+				|| permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+			throw new IOException("The token file " + tokenPath 
+					+ " must be readable only by its owner");
+		}
+		return new String(Files.readAllBytes(tokenPath), StandardCharsets.US_ASCII).trim();
+	}
+
+
+//	Returns true if the given token is the token of the file. The comparison takes the same time
+//	whatever the first wrong byte, so that the token can't be guessed byte after byte.
+	public static boolean isValidToken(String token) throws IOException {
+		return MessageDigest.isEqual(readToken().getBytes(StandardCharsets.US_ASCII),
+				token.getBytes(StandardCharsets.US_ASCII));
+	}
+
+}
@@ -0,0 +1,50 @@
+
+// Modules to import.
+import java.util.Arrays;
+import java.util.List;
+
+
+// Class of the table of the jobs that the slaves can run, shared by the Master and the slaves.
+// The Master needs the names of the jobs, for checking the job given on its command line, the byte
+// that ends their records, for cutting the input file between two records, and the codec of their
+// values, for reading the RMx files and the records of the slaves. The slaves cut the parts of
+// their threads at the same byte, and write the values with the same codec. The functions of each
+// job are defined by the Job class of the slaves, which must know every name of this table.
+public class JobCatalog {
+
+
+//	Names of the jobs, given to the Master with --job=<name>.
+	public static final List<String> NAMES = Arrays.asList("wordcount", "sum", "max");
+
+//	Byte that ends the records of each job, in the order of the names: a space for the words, a
+//	new line for the lines "<key> <value>".
+	private static final byte[] RECORD_SEPARATORS = new byte[] {' ', '\n', '\n'};
+
+//	Codec of the values of each job, in the order of the names: the occurences are never negative,
+//	the values of the lines can be.
+	private static final ValueCodec[] VALUE_CODECS = new ValueCodec[] {ValueCodec.VARLONG,
+			ValueCodec.SIGNED_VARLONG, ValueCodec.SIGNED_VARLONG};
+
+
+//	Returns the byte that ends the records of the job with the given name.
+	public static byte getRecordSeparator(String name) {
+		return RECORD_SEPARATORS[indexOf(name)];
+	}
+
+//	Returns the codec of the values of the job with the given name.
+	public static ValueCodec getValueCodec(String name) {
+		return VALUE_CODECS[indexOf(name)];
+	}
+
+
+//	Returns the index of the job with the given name in the table.
+	private static int indexOf(String name) {
+
+		int index = NAMES.indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("Unknown job " + name + ", jobs are " + NAMES);
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,104 @@
+
+// Modules to import.
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+// Class that merges runs, files of couples (key, count) sorted from the most frequent key then by
+// key, into a single output in the same order. The runs are in the block format of BlockWriter:
+// the RMx files merged by the master into the result file, or the parts spilled by a reducer and
+// merged into its RMx file. Only the current block of each run is kept in memory, so the memory
+// used depends on the number of runs and not on their size.
+public class RunMerger {
+
+
+//	Fields.
+	private List<Run> runs; // Runs to merge, with their current couple.
+	private ValueCodec valueCodec; // Encoding of the counts of the runs.
+
+
+//	Constructor.
+	public RunMerger(ValueCodec valueCodec) {
+		this.runs = new ArrayList<Run>();
+		this.valueCodec = valueCodec;
+	}
+
+
+//	Opens a run and reads its first couple. Runs can be added while others are still being
+//	written, as long as they are all added before the merge.
+	public void addRun(File file) throws IOException {
+
+		Run run = new Run(new BlockReader(new BufferedInputStream(new FileInputStream(file), 
+				1 << 16), this.valueCodec));
+		this.runs.add(run);
+		run.next();
+	}
+
+
+//	Writes the couples of every run to the output, from the most frequent key, and by key for the
+//	same count (see BlockFormat.compareKeys). Closes the runs and returns the number of couples
+//	written.
+	public long mergeTo(CoupleWriter output) throws IOException {
+
+		PriorityQueue<Run> heads = new PriorityQueue<Run>(this.runs.size() + 1,
+				new Comparator<Run>() {
+			@Override
+			public int compare(Run run1, Run run2) {
+				int countComparison = Long.compare(run2.reader.getCount(), 
+						run1.reader.getCount());
+				return countComparison != 0 ? countComparison 
+						: BlockFormat.compareKeys(run1.reader.getKeyBytes(), 0, 
+								run1.reader.getKeyLength(), run2.reader.getKeyBytes(), 0, 
+								run2.reader.getKeyLength());
+			}
+		});
+		for (Run run : this.runs) {
+			if (run.hasCouple) {
+				heads.add(run);
+			}
+		}
+
+		long writtenCouples = 0;
+		try {
+			while (!heads.isEmpty()) {
+				Run run = heads.poll();
+				output.write(run.reader.getKeyBytes(), 0, run.reader.getKeyLength(), 
+						run.reader.getCount());
+				writtenCouples++;
+				if (run.next()) {
+					heads.add(run);
+				}
+			}
+		} finally {
+			for (Run run : this.runs) {
+				run.reader.close();
+			}
+		}
+		return writtenCouples;
+	}
+
+
+//	Class of a run being read, with its current couple.
+	private static class Run {
+
+		private BlockReader reader; // For reading the file of the run, holds the current couple.
+		private boolean hasCouple; // False when the run is empty.
+
+		private Run(BlockReader reader) {
+			this.reader = reader;
+		}
+
+//		Reads the next couple of the run, returns false if the run is empty.
+		private boolean next() throws IOException {
+			this.hasCouple = this.reader.next();
+			return this.hasCouple;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+
+// Interface of the encoding of the values of a job (the counts of its keys) in the UMx and RMx
+// files and in the records sent to the master. A value is written directly into the byte array of
+// the writer and read from the byte array of the reader into an array of values of the reader, so
+// a codec allocates nothing. The codec of each job is given by JobCatalog, shared by the master
+// and the slaves.
+public interface ValueCodec {
+
+
+//	Maximum length of an encoded value, in bytes.
+	public static final int MAX_LENGTH = 10;
+
+
+//	Varint of a long (7 bits per byte, lowest first, the high bit is set if more bytes follow).
+//	The default codec, for the values which are never negative like the occurences: a value
+//	below 128 takes 1 byte, but a negative value takes 10.
+	public static final ValueCodec VARLONG = new ValueCodec() {
+		@Override
+		public int write(long value, byte[] bytes, int position) {
+			while ((value & ~0x7FL) != 0) {
+				bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+				value = value >>> 7;
+			}
+			bytes[position++] = (byte) value;
+			return position;
+		}
+		@Override
+		public int read(byte[] bytes, int position, long[] values, int index) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[position++];
+				value = value | (long) (b & 0x7F) << shift;
+				shift = shift + 7;
+			} while (b < 0);
+			values[index] = value;
+			return position;
+		}
+	};
+
+//	Varint of a long in the zigzag order (0, -1, 1, -2, 2...), for the values which can be
+//	negative: a value between -64 and 63 takes 1 byte.
+	public static final ValueCodec SIGNED_VARLONG = new ValueCodec() {
+		@Override
+		public int write(long value, byte[] bytes, int position) {
+			return VARLONG.write(value << 1 ^ value >> 63, bytes, position);
+		}
+		@Override
+		public int read(byte[] bytes, int position, long[] values, int index) {
+			position = VARLONG.read(bytes, position, values, index);
+			values[index] = values[index] >>> 1 ^ -(values[index] & 1);
+			return position;
+		}
+	};
+
+
+//	Writes a value at the given position, where the bytes can take MAX_LENGTH bytes more, and
+//	returns the position after it.
+	public int write(long value, byte[] bytes, int position);
+
+//	Reads the value at the given position into the values at the given index, and returns the
+//	position after it.
+	public int read(byte[] bytes, int position, long[] values, int index);
+
+}
@@ -0,0 +1,59 @@
+
+// Modules to import.
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import benchmarks.Workload;
+
+
+// Workloads of the benchmarks of the master. They are in the default package, like the classes
+// that they use.
+public class MasterWorkloads {
+
+
+//	Number of splits planned in the input file.
+	private static final int NUMBER_OF_SPLITS = 64;
+
+
+//	Search of the boundaries of the splits of the input file: the first space (the separator of
+//	the words) after the nominal end of each split, read with positional reads like the splitting
+//	phase of the Master does.
+	public static class SplitBoundaries implements Workload {
+
+		private File inputFile;
+		private FileChannel inputChannel;
+
+		@Override
+		public void setUp(byte[] corpus) throws IOException {
+			this.inputFile = File.createTempFile("shavadoop-split-", ".txt");
+			this.inputFile.deleteOnExit();
+			this.inputChannel = FileChannel.open(this.inputFile.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			ByteBuffer bytes = ByteBuffer.wrap(corpus);
+			while (bytes.hasRemaining()) {
+				this.inputChannel.write(bytes);
+			}
+		}
+
+		@Override
+		public Object run() throws IOException {
+			long inputLength = this.inputChannel.size();
+			long sum = 0;
+			for (int splitNumber = 1; splitNumber < NUMBER_OF_SPLITS; splitNumber++) {
+				sum = sum + Master.findNextSeparator(this.inputChannel,
+						inputLength * splitNumber / NUMBER_OF_SPLITS, (byte) 32);
+			}
+			return sum;
+		}
+
+		@Override
+		public void tearDown() throws IOException {
+			this.inputChannel.close();
+			this.inputFile.delete();
+		}
+	}
+
+}
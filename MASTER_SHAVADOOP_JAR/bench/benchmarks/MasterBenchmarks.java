@@ -0,0 +1,40 @@
+package benchmarks;
+
+// Modules to import.
+import org.openjdk.jmh.annotations.Param;
+
+
+// JMH benchmarks of the hot paths of the master, the workloads of MasterWorkloads, on corpora
+// written to temporary files (for the splitting, an operation is the planning of all the boundaries
+// of the file). The corpora, the measure and the options are those of WorkloadBenchmarks, shared
+// with the slave.
+// The benchmarks are compiled with the sources of the master and those shared with the slave, with
+// JMH and its annotation processor on the classpath (jmh-core, jmh-generator-annprocess,
+// jopt-simple, commons-math3):
+//   javac -cp <JMH jars> -d classes ../src/*.java ../../COMMON_SHAVADOOP/src/*.java *.java \
+//       benchmarks/*.java ../../COMMON_SHAVADOOP/bench/benchmarks/*.java
+//   java -cp <JMH jars>:classes benchmarks.MasterBenchmarks [JMH options]
+public class MasterBenchmarks extends WorkloadBenchmarks {
+
+
+//	File of the results, unless another one is given with -rff.
+	private static final String DEFAULT_RESULT_FILE = "master-benchmarks.json";
+
+
+//	Parameter of the benchmark: the workload, by its name in MasterWorkloads.
+	@Param({"SplitBoundaries"})
+	public String workloadName;
+
+
+//	Entry point.
+	public static void main(String[] args) throws Exception {
+		runBenchmarks(MasterBenchmarks.class, DEFAULT_RESULT_FILE, args);
+	}
+
+
+	@Override
+	protected String getWorkloadClassName() {
+		return "MasterWorkloads$" + this.workloadName;
+	}
+
+}
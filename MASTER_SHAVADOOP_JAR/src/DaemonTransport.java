@@ -0,0 +1,146 @@
+
+// Modules to import.
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+
+// Class that sends each job to a Slave daemon listening on a port of the slave, so that the jobs
+// run in a warm JVM instead of paying an SSH handshake and a JVM startup each time. If no daemon
+// is listening, it is started via SSH first. The protocol is described in DaemonProtocol.
+public class DaemonTransport implements SlaveTransport {
+
+
+//	Time to wait for a daemon started via SSH to listen, in ms.
+	private static final int BOOTSTRAP_TIMEOUT = 20000;
+	private static final int CONNECTION_TIMEOUT = 5000;
+
+
+//	Fields.
+	private int port; // Port on which the daemons listen.
+	private String slaveJarDirectory; // Directory that contains Slave.jar, for starting daemons.
+
+
+//	Constructor.
+	public DaemonTransport(int port, String slaveJarDirectory) {
+
+		this.port = port;
+		this.slaveJarDirectory = slaveJarDirectory;
+	}
+
+
+//	Connects to the daemon of the slave and sends it the task descriptor. The token is read once
+//	connected, so that a daemon started by the connection has created it.
+	@Override
+	public Task start(String adress, String[] arguments) throws IOException {
+
+		final Socket socket = this.connect(adress);
+		final DataOutputStream requestWriter = new DataOutputStream(new BufferedOutputStream(
+				socket.getOutputStream()));
+		requestWriter.writeInt(DaemonProtocol.MAGIC_NUMBER);
+		requestWriter.writeUTF(DaemonProtocol.readToken());
+		requestWriter.writeInt(arguments.length);
+		for (String argument : arguments) {
+			requestWriter.writeUTF(argument);
+		}
+		requestWriter.flush();
+
+		return new Task() {
+			@Override
+			public InputStream getOutputStream() {
+				try {
+					return socket.getInputStream();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+//			The messages follow the task descriptor on the connection.
+			@Override
+			public OutputStream getControlStream() {
+				return requestWriter;
+			}
+//			The daemon sends no exit code, a failed job is detected by its missing end signal.
+			@Override
+			public int waitFor() {
+				this.cancel();
+				return 0;
+			}
+//			The daemon can't kill the thread of a job, but the job sees that the connection is
+//			closed: it stops before writing more outputs, and deletes those already written.
+			@Override
+			public void cancel() {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+	}
+
+
+//	Connects to the daemon of the slave. If it doesn't answer, we start it via SSH (this is the 
+//	only use of SSH in this mode) and try again until it listens.
+	private Socket connect(String adress) throws IOException {
+
+		try {
+			return this.tryConnect(adress);
+		} catch (ConnectException e) {
+			this.bootstrap(adress);
+		}
+
+		long deadline = System.currentTimeMillis() + BOOTSTRAP_TIMEOUT;
+		while (true) {
+			try {
+				return this.tryConnect(adress);
+			} catch (ConnectException e) {
+				if (System.currentTimeMillis() > deadline) {
+					throw e;
+				}
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e1) {
+					throw new IOException(e1);
+				}
+			}
+		}
+	}
+
+
+//	Opens a connection to the daemon of the slave.
+	private Socket tryConnect(String adress) throws IOException {
+
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(adress, this.port), CONNECTION_TIMEOUT);
+			return socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+
+//	Starts a daemon on the slave via SSH, detached from the SSH session. Several JobLaunchers can
+//	try to start the daemon of the same slave, only the first one will bind the port. The daemon
+//	runs in the directory of Slave.jar, the only one where its jobs can open files, and only
+//	accepts the connections of the adress of the master seen by SSH (the first word of SSH_CLIENT).
+	private synchronized void bootstrap(String adress) throws IOException {
+
+		System.out.println("-> starting Slave daemon on " + adress + ":" + this.port);
+		Process process = new ProcessBuilder("ssh", adress, "cd " 
+				+ SSHTransport.quote(this.slaveJarDirectory) + " && nohup java -jar Slave.jar DAEMON "
+				+ this.port + " ${SSH_CLIENT%% *} > /dev/null 2>&1 &").start();
+		try {
+			process.waitFor();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
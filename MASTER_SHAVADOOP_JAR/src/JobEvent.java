@@ -0,0 +1,56 @@
+
+// Class of the messages that the JobLaunchers publish to the Master while a job is running.
+public class JobEvent {
+
+
+//	Types of events.
+	public enum Type {
+		RECORDS, // A batch of outputs (couples) sent by the slave.
+		JOB_ENDED, // The slave has sent all its outputs.
+		JOB_FAILED // The job has failed, or the slave is lost.
+	}
+
+
+//	Fields.
+	private Type type; // Type of the event.
+	private JobLauncher jobLauncher; // JobLauncher that published the event.
+	private RecordBatch records; // Outputs of the slave, only for the RECORDS type.
+
+
+//	Constructor.
+	private JobEvent(Type type, JobLauncher jobLauncher, RecordBatch records) {
+
+		this.type = type;
+		this.jobLauncher = jobLauncher;
+		this.records = records;
+	}
+
+
+//	Creates an event holding a batch of outputs.
+	public static JobEvent records(JobLauncher jobLauncher, RecordBatch records) {
+		return new JobEvent(Type.RECORDS, jobLauncher, records);
+	}
+
+//	Creates an event signaling the end of a job.
+	public static JobEvent jobEnded(JobLauncher jobLauncher) {
+		return new JobEvent(Type.JOB_ENDED, jobLauncher, null);
+	}
+
+//	Creates an event signaling the failure of a job.
+	public static JobEvent jobFailed(JobLauncher jobLauncher) {
+		return new JobEvent(Type.JOB_FAILED, jobLauncher, null);
+	}
+
+
+//	Getters.
+	public Type getType() {
+		return this.type;
+	}
+	public JobLauncher getJobLauncher() {
+		return this.jobLauncher;
+	}
+	public RecordBatch getRecords() {
+		return this.records;
+	}
+
+}
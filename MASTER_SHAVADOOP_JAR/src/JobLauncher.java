@@ -1,34 +1,54 @@
 
 // Modules to import
-import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 
-// Class that sends a job (map or reduce) to a slave.
+// Class that sends a job (map or reduce) to a slave. A job can be sent several times, to several
+// slaves, if it is too slow: each attempt writes its output files under its own names, and only
+// the outputs of the first attempt to end are renamed to the names expected by the next phase.
 public class JobLauncher implements Runnable {
 
 //	Fields of the class.
-	private Thread thread; // Thread that will be associated to this instance.
 	private String mode; // Sx -> UMx or UMx -> RMx.
-	private String adress; // Adress of the slave who will execute the job.
-	private String slaveJarDirectory; // Directory that contains Slave.jar.
-	private BlockingQueue<String> outputArray; // For storing the outputs of the slave.
+	private String job; // Name of the job that the slave runs (word count, sum, max).
+	private String adress; // Adress of the slave who will execute the job, null if not scheduled.
+	private SlaveTransport transport; // For sending the job to the slave (SSH or daemon).
+	private BlockingQueue<JobEvent> jobEvents; // Shared with the Master and the other JobLaunchers.
 	private boolean isJobEnded; // For knowing when the slave has sent all the expected outputs.
-	private String inputSxFile; // Input file for Sx -> UMx mode.
-	private String outputUmxFile; // Output file for Sx -> UMx mode.
-	private String[] rmxKeys; // Input keys for UMx -> RMx mode.
-	private Set<String> inputUmxFiles; // Input files for UMx -> RMx mode.
+	private String inputFile; // Input file for Sx -> UMx mode.
+	private long splitStart; // Start of the split Sx in the input file for Sx -> UMx mode.
+	private long splitEnd; // End (excluded) of the split Sx for Sx -> UMx mode.
+	private String outputUmxFilesPrefix; // Prefix of the output files for Sx -> UMx mode.
+	private int numberOfPartitions; // Number of output files (one per reducer) for Sx -> UMx mode.
+	private String inputUmxFilesPrefix; // Prefix of the UMx files of every mapper for UMx -> RMx.
+	private int numberOfMappers; // Number of Sx -> UMx processes for UMx -> RMx mode.
+	private List<Integer> inputPartitions; // Partitions to count for UMx -> RMx mode.
+	private List<Integer> committedMappers; // Mappers committed so far, for UMx -> RMx mode.
+	private int numberOfSentMappers; // Number of committed mappers sent to the slave.
+	private DataOutputStream controlWriter; // For sending the messages to the slave, once started.
 	private String outputRmxFile; // Output file for UMx -> RMx mode.
+	private int topK; // Number of most frequent keys to send for UMx -> RMx mode, 0 for all.
+	private long[] stats; // Statistics sent by the slave at the end of the job, or null if none.
+	private long duration; // Duration of the job, until its end signal, in ms.
+	private int attempt; // Number of the attempt of the job, 0 for the first one.
+	private volatile long startTime; // Start of the attempt, 0 if it hasn't started yet.
+	private volatile RecordReader recordReader; // For decoding the outputs, and the progress.
+	private volatile SlaveTransport.Task task; // Job running on the slave.
+	private volatile boolean isCancelled; // True if the attempt was cancelled by the Master.
 	
 	
 //	Constructor for Sx -> UMx mode.
-	public JobLauncher(String mode, String adress, String outputUmxFile, String inputSxFile,
-			String slaveJarDirectory) {
+	public JobLauncher(String mode, String job, String adress, String outputUmxFilesPrefix, 
+			int numberOfPartitions, String inputFile, long splitStart, long splitEnd, 
+			int attempt, SlaveTransport transport, BlockingQueue<JobEvent> jobEvents) {
 		
 //		We check that the given mode corresponds to this constructor, and throw an error if not.
 		if (!mode.equals("SXUMX")) {
@@ -37,18 +57,25 @@ public class JobLauncher implements Runnable {
 //		Otherwise we initialize needed fields.
 		} else {
 			this.mode = mode;
+			this.job = job;
 			this.adress = adress;
-			this.slaveJarDirectory = slaveJarDirectory;
-			this.outputArray = new ArrayBlockingQueue<String>(15000);
-			this.inputSxFile = inputSxFile;
-			this.outputUmxFile = outputUmxFile;
+			this.transport = transport;
+			this.jobEvents = jobEvents;
+			this.inputFile = inputFile;
+			this.splitStart = splitStart;
+			this.splitEnd = splitEnd;
+			this.outputUmxFilesPrefix = outputUmxFilesPrefix;
+			this.numberOfPartitions = numberOfPartitions;
+			this.attempt = attempt;
 			this.isJobEnded = false;
 		}
 	}
 	
 //	Constructor for UMx -> RMx mode.
-	public JobLauncher(String mode, String adress, String[] rmxKeys, String outputRmxFile, 
-			Set<String> inputUmxFiles, String slaveJarDirectory) {
+	public JobLauncher(String mode, String job, String adress, String outputRmxFile, 
+			String inputUmxFilesPrefix, int numberOfMappers, List<Integer> inputPartitions, 
+			List<Integer> committedMappers, int topK, int attempt, SlaveTransport transport, 
+			BlockingQueue<JobEvent> jobEvents) {
 
 //		We check that the given mode corresponds to this constructor, and throw an error if not.
 		if (!mode.equals("UMXRMX")) {
@@ -57,42 +84,178 @@ public class JobLauncher implements Runnable {
 //		Otherwise we initialize needed fields.
 		} else {
 			this.mode = mode;
+			this.job = job;
 			this.adress = adress;
-			this.slaveJarDirectory = slaveJarDirectory;
-			this.outputArray = new ArrayBlockingQueue<String>(15000);
-			this.rmxKeys = rmxKeys;
-			this.inputUmxFiles = inputUmxFiles;
+			this.transport = transport;
+			this.jobEvents = jobEvents;
+			this.inputUmxFilesPrefix = inputUmxFilesPrefix;
+			this.numberOfMappers = numberOfMappers;
+			this.inputPartitions = inputPartitions;
+			this.committedMappers = committedMappers;
+			this.numberOfSentMappers = 0;
 			this.outputRmxFile = outputRmxFile;
+			this.topK = topK;
+			this.attempt = attempt;
 			this.isJobEnded = false;
 		}
 	}
 	
 	
 //	Getters and setters.
-	public Thread getThread() {
-		return this.thread;
-	}	
-	public void setThread(Thread thread) {
-		this.thread = thread;
-	}
 	public String getAdress() {
 		return this.adress;
 	}
-	public BlockingQueue<String> getOutputArray() {
-		return this.outputArray;
-	}
 	public boolean isJobEnded() {
 		return this.isJobEnded;
 	}
 	public void setJobEnded(boolean jobEnded) {
 		this.isJobEnded = jobEnded;
 	}
-	public String getOutputUmxFile() {
-		return this.outputUmxFile;
+	public String getOutputRmxFile() {
+		return this.outputRmxFile;
+	}
+	public long[] getStats() {
+		return this.stats;
+	}
+	public long getDuration() {
+		return this.duration;
+	}
+	public int getAttempt() {
+		return this.attempt;
+	}
+	public boolean isCancelled() {
+		return this.isCancelled;
+	}
+	
+	
+//	Returns the time elapsed since the start of the attempt, in ms, or 0 if it hasn't started.
+	public long getElapsedTime() {
+		long startTime = this.startTime;
+		return startTime > 0 ? System.currentTimeMillis() - startTime : 0;
+	}
+	
+//	Returns the time at which the slave was last heard of: its last frame, or the start of the
+//	attempt. An attempt which hasn't started yet is considered as just heard of.
+	public long getLastHeardTime() {
+		RecordReader recordReader = this.recordReader;
+		long startTime = this.startTime;
+		if (recordReader != null) {
+			return recordReader.getLastFrameTime();
+		}
+		return startTime > 0 ? startTime : System.currentTimeMillis();
+	}
+	
+//	Returns the last progress sent by the slave, between 0 and 1.
+	public double getProgress() {
+		RecordReader recordReader = this.recordReader;
+		return recordReader != null ? recordReader.getProgress() : 0;
+	}
+	
+	
+//	Returns the output file of a partition for Sx -> UMx mode, once committed. The slave writes
+//	one file for each partition, named with the same convention.
+	private String getOutputUmxFile(int partition) {
+		return this.outputUmxFilesPrefix + "_" + partition + ".bin";
+	}
+	
+//	Returns the file written by the slave for a partition for Sx -> UMx mode, before the commit.
+	private String getAttemptUmxFile(int partition) {
+		return this.outputUmxFilesPrefix + ".attempt-" + this.attempt + "_" + partition + ".bin";
+	}
+	
+//	Returns the file written by the slave for UMx -> RMx mode, before the commit.
+	private String getAttemptRmxFile() {
+		return this.outputRmxFile.substring(0, this.outputRmxFile.length() - ".bin".length()) 
+				+ ".attempt-" + this.attempt + ".bin";
+	}
+	
+	
+//	Returns a new attempt of the same job, to be sent to another slave.
+	public JobLauncher createAttempt(String adress, int attempt) {
+		
+		if (this.mode.equals("SXUMX")) {
+			return new JobLauncher(this.mode, this.job, adress, this.outputUmxFilesPrefix, 
+					this.numberOfPartitions, this.inputFile, this.splitStart, this.splitEnd, 
+					attempt, this.transport, this.jobEvents);
+		} else {
+			return new JobLauncher(this.mode, this.job, adress, this.outputRmxFile, 
+					this.inputUmxFilesPrefix, this.numberOfMappers, this.inputPartitions, 
+					this.committedMappers, this.topK, attempt, this.transport, this.jobEvents);
+		}
+	}
+	
+	
+//	Renames the output files of this attempt to the names expected by the next phase. Each rename 
+//	is atomic, so the next phase never reads a partial file.
+	public void commitOutputs() throws IOException {
+		
+		if (this.mode.equals("SXUMX")) {
+			for (int partition = 0; partition < this.numberOfPartitions; partition++) {
+				Files.move(Paths.get(this.getAttemptUmxFile(partition)), 
+						Paths.get(this.getOutputUmxFile(partition)), 
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} else {
+			Files.move(Paths.get(this.getAttemptRmxFile()), Paths.get(this.outputRmxFile), 
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	
+//	Deletes the output files of this attempt, complete or not, including the files spilled by a
+//	reducer.
+	public void discardOutputs() {
+		
+		if (this.mode.equals("SXUMX")) {
+			for (int partition = 0; partition < this.numberOfPartitions; partition++) {
+				new File(this.getAttemptUmxFile(partition)).delete();
+			}
+		} else {
+			File attemptFile = new File(this.getAttemptRmxFile());
+			attemptFile.delete();
+			File[] outputDirectoryFiles = attemptFile.getAbsoluteFile().getParentFile().listFiles();
+			for (int i = 0; outputDirectoryFiles != null && i < outputDirectoryFiles.length; i++) {
+				if (outputDirectoryFiles[i].getName().startsWith(attemptFile.getName() + ".spill")) {
+					outputDirectoryFiles[i].delete();
+				}
+			}
+		}
 	}
 	
 	
-//	Method executed in a new thread when Thread.start() is called by Master.
+//	Sends to the slave the mappers committed since the last call, for UMx -> RMx mode. The list of
+//	the committed mappers is shared by the reducers, the Master adds each mapper once its UMx files
+//	are renamed, and calls this method for every running attempt. The attempt calls it too once 
+//	the job is started, so no mapper is missed. If the slave is lost, its attempt will fail.
+	public synchronized void sendCommittedMappers() {
+		
+		if (this.controlWriter == null || this.isCancelled) {
+			return;
+		}
+		try {
+			while (this.numberOfSentMappers < this.committedMappers.size()) {
+				this.controlWriter.writeInt(this.committedMappers.get(this.numberOfSentMappers));
+				this.numberOfSentMappers++;
+			}
+			this.controlWriter.flush();
+		} catch (IOException e) {
+			System.out.println("-> can't send the committed mappers to " + this.adress + ": " + e);
+		}
+	}
+	
+	
+//	Stops the attempt on the slave, when another attempt of the same job has ended first.
+	public void cancel() {
+		
+		this.isCancelled = true;
+		SlaveTransport.Task task = this.task;
+		if (task != null) {
+			task.cancel();
+		}
+	}
+	
+	
+//	Method executed in a task of a TaskScope, when it is forked by the Master.
 	@Override
 	public void run() {
 		
@@ -108,40 +271,40 @@ public class JobLauncher implements Runnable {
 //	Sends a Sx -> UMx process to the slave.
 	private void sxUmx() {
 		
-//		Object for reading the outputs (keys) of the process.
-		BufferedReader outputReader = null;
+//		Stream of the outputs (keys) of the process.
+		InputStream outputStream = null;
 		
 //		Try-catch bloc to prevent errors while trying to read the process response.
 		try {
 			
-//			Sends new process to slave via SSH.
-			Process process = new ProcessBuilder("ssh", this.adress, "java -jar " 
-					+ this.slaveJarDirectory + "Slave.jar "
-					+ "SXUMX " + this.outputUmxFile + " " + this.inputSxFile)
-				.start();
-			
-//			Initializes the output reader.			
-			outputReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+//			Sends new process to slave, via SSH or to its daemon.
+//			The output files are named after the attempt, the Master renames them at the end.
+			this.startTime = System.currentTimeMillis();
+			this.task = this.transport.start(this.adress, new String[] {
+					"SXUMX", this.job, this.outputUmxFilesPrefix + ".attempt-" + this.attempt, 
+					this.inputFile, String.valueOf(this.splitStart), 
+					String.valueOf(this.splitEnd), String.valueOf(this.numberOfPartitions)});
 			
-//			Stores the outputs at the tail of the array. The "readline" method returns null only
-//			when the process has ended and all the outputs have been read.
-			String word;
-			while ((word = outputReader.readLine()) != null) {
-				this.outputArray.put(word);
-			}
+//			Publishes the outputs to the Master.
+			outputStream = this.task.getOutputStream();
+			this.publishOutputs(outputStream);
 			
 //			Process has ended.
-			process.waitFor();
-			System.out.println("-> wrote file " + this.outputUmxFile);
+			this.endJob();
+			System.out.println("-> " + this.adress + " wrote files " + this.outputUmxFilesPrefix 
+					+ ".attempt-" + this.attempt + "_*.bin");
 		
-//		Catches exceptions while trying to read the outputs.
-		} catch (IOException | InterruptedException e) { 
-			e.printStackTrace(); 
+//		Catches exceptions while trying to read the outputs, and tells the Master that the job has
+//		failed. They are expected if the attempt was cancelled.
+		} catch (Exception e) { 
+			this.publishFailure(e);
 			
 //		Closes the stream to prevent memory leak.
 		} finally {
 			try {
-				outputReader.close();
+				if (outputStream != null) {
+					outputStream.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -152,72 +315,125 @@ public class JobLauncher implements Runnable {
 //	Sends a UMx -> RMx process to a slave.
 	private void umxRmx() {
 		
-//		Assemble the list of input files into a single String, with triple underscore as separator.
-		String inputFilesAsString = " ";
-		StringBuilder stringBuilder = new StringBuilder();
-		for (String inputFile : this.inputUmxFiles) {
-			stringBuilder.append(inputFile + "___");
+//		The slave rebuilds the names of its input files from the prefix of the UMx files, the
+//		number of mappers and its partitions, so the arguments don't grow with the number of
+//		mappers: the list of the files could exceed the maximum length of an argument of SSH or
+//		of the daemon protocol. The partitions are assembled into a single String, with commas as
+//		separator.
+		StringBuilder partitionsAsString = new StringBuilder();
+		for (int partition : this.inputPartitions) {
+			if (partitionsAsString.length() > 0) {
+				partitionsAsString.append(",");
+			}
+			partitionsAsString.append(partition);
 		}
-		inputFilesAsString = stringBuilder.toString();
 
-//		Object for writing the input keys to a file.
-		PrintWriter keysWriter = null;
-		
-//		Object for reading the outputs (key + count) of the process.		
-		BufferedReader outputReader = null;
+//		Stream of the outputs (key + count) of the process.		
+		InputStream outputStream = null;
 	
 //		Try-catch bloc to prevent errors while trying to read or write streams.
 		try {
 			
-//			Writes the keys to a file that we will send to the slave.
-			keysWriter = new PrintWriter(this.slaveJarDirectory + "Keys/Keys_" + this.adress 
-					+ ".txt");
-			for (int i = 0; i < this.rmxKeys.length; i++) {
-				if (i < this.rmxKeys.length - 1) {
-					keysWriter.write(this.rmxKeys[i] + "\n");
-				} else {
-					keysWriter.write(this.rmxKeys[i]);
-				}
+//			Sends new process to slave, via SSH or to its daemon. With a top K, the slave only
+//			sends its K most frequent keys.
+//			The output file is named after the attempt, the Master renames it at the end.
+			String[] arguments = new String[] {"UMXRMX", this.job, this.getAttemptRmxFile(), 
+					this.inputUmxFilesPrefix, String.valueOf(this.numberOfMappers), 
+					partitionsAsString.toString()};
+			if (this.topK > 0) {
+				arguments = new String[] {"UMXRMX", this.job, this.getAttemptRmxFile(), 
+						this.inputUmxFilesPrefix, String.valueOf(this.numberOfMappers), 
+						partitionsAsString.toString(), String.valueOf(this.topK)};
 			}
+			this.startTime = System.currentTimeMillis();
+			this.task = this.transport.start(this.adress, arguments);
 			
-//			Closes the stream so that the slave can access the keys file.
-			keysWriter.close();
-			
-//			Sends new process to slave via SSH.
-			Process process = new ProcessBuilder("ssh", this.adress, "java -jar " 
-					+ this.slaveJarDirectory + "Slave.jar " 
-					+ "UMXRMX " + this.outputRmxFile + " " + inputFilesAsString + " "
-					+ this.slaveJarDirectory + "Keys/Keys_" + this.adress + ".txt")
-				.start();
-			
-//			Initializes the output reader.	
-			outputReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-			
-//			Stores the outputs at the tail of the array. The "readline" method returns null only
-//			when the process has ended and all the outputs have been read.
-			String keyAndCount;
-			while ((keyAndCount = outputReader.readLine()) != null) {
-				this.outputArray.put(keyAndCount);
+//			The reducer only counts the UMx files of the mappers that we have committed, so we send
+//			it those already committed, then each new one as soon as it is committed.
+			synchronized (this) {
+				this.controlWriter = new DataOutputStream(this.task.getControlStream());
 			}
+			this.sendCommittedMappers();
+			
+//			Publishes the outputs to the Master.
+			outputStream = this.task.getOutputStream();
+			this.publishOutputs(outputStream);
 						
 //			Process has ended.
-			process.waitFor();
-			System.out.println("-> wrote file " + this.outputRmxFile);
+			this.endJob();
+			System.out.println("-> " + this.adress + " wrote file " + this.getAttemptRmxFile());
 			
-//		Catches exceptions while trying to read or write streams.			
-		} catch (IOException | InterruptedException e) {
-			e.printStackTrace(); 
+//		Catches exceptions while trying to read or write streams, and tells the Master that the
+//		job has failed. They are expected if the attempt was cancelled.
+		} catch (Exception e) {
+			this.publishFailure(e);
 			
-//		Closes the streams to prevent memory leak.
+//		Closes the streams to prevent memory leak. No more mapper is sent to the slave.
 		} finally {
 			try {
-				keysWriter.close();
-				outputReader.close();
+				if (outputStream != null) {
+					outputStream.close();
+				}
+				synchronized (this) {
+					if (this.controlWriter != null) {
+						this.controlWriter.close();
+						this.controlWriter = null;
+					}
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 		
-	}	
+	}
+	
+	
+//	Decodes the binary outputs of the slave and publishes them to the Master, one batch for each
+//	frame sent by the slave. The slave sends a frame when it is full or when its job has ended, so
+//	the Master receives the outputs while the job is running. Throws an EOFException if the slave
+//	is lost before its end signal.
+	private void publishOutputs(InputStream outputStream) throws IOException, InterruptedException {
+		
+		this.recordReader = new RecordReader(outputStream, JobCatalog.getValueCodec(this.job));
+		RecordBatch batch;
+		while ((batch = this.recordReader.readBatch()) != null) {
+			if (!batch.isEmpty()) {
+				this.jobEvents.put(JobEvent.records(this, batch));
+			}
+		}
+		
+//		The statistics and the duration are set before the end event, so the Master can read them
+//		as soon as it receives it.
+		this.stats = this.recordReader.getStats();
+		this.duration = System.currentTimeMillis() - this.startTime;
+	}
+	
+	
+//	Waits for the end of the job on the slave, and publishes the JOB_ENDED event if it has
+//	succeeded. The outputs are only complete if the slave has also exited without error.
+	private void endJob() throws IOException, InterruptedException {
+		
+		int exitCode = this.task.waitFor();
+		if (exitCode != 0) {
+			throw new IOException("Slave " + this.adress + " exited with code " + exitCode);
+		}
+		this.jobEvents.put(JobEvent.jobEnded(this));
+	}
+	
+	
+//	Tells the Master that the job has failed, so that it can be sent to another slave, unless the
+//	attempt was cancelled by the Master.
+	private void publishFailure(Exception failure) {
+		
+		if (this.isCancelled) {
+			return;
+		}
+		System.out.println("-> job on " + this.adress + " failed: " + failure);
+		try {
+			this.jobEvents.put(JobEvent.jobFailed(this));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
 	
 }
@@ -1,21 +1,30 @@
 
 // Modules to import.
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 
 // Main class.
@@ -34,14 +43,49 @@ public class Master {
 	}
 
 
+//	Number of partitions that each mapper writes for each reducer. The partitions are then 
+//	assigned to the reducers by their weight, so that the reducers get balanced loads.
+	private static final int PARTITIONS_PER_REDUCER = 8;
+
+//	Default size of a split of the input file, in bytes. The number of splits doesn't depend on the
+//	number of slaves: each slave runs the next split as soon as it has a free slot.
+	private static final long DEFAULT_SPLIT_SIZE = 64L << 20;
+
+//	Default fraction of the Sx -> UMx processes which must be committed before the UMx -> RMx 
+//	processes are launched. The reducers count the UMx files of the ended mappers while the last 
+//	mappers are running.
+	private static final double DEFAULT_REDUCE_START = 0.8;
+
+
 //	Fields of the class. They are private so they can't be accessed from outside the class instance.
 	private String workingDirectory; // Directory that contains the jars and files.
 	private long initialTime; // For timing the whole program.
 	private List<String> successAdresses; // List of the available machines (after testing SSH).
+	private File inputFile; // Input file, read directly by the slaves.
+	private long[] splitStarts; // Start of each split of the input file, in bytes.
+	private long[] splitEnds; // End (excluded) of each split of the input file, in bytes.
 	private List<JobLauncher> sxUmxJobLaunchers; // List of Sx -> UMx processes.
 	private List<JobLauncher> umxRMxJobLaunchers; // List UMx -> RMx processes.
-	private Map<String, List<String>> keysAndTheirUmx; // Lists of UMx files containing each word.
-	private Map<String, Integer> keysAndCounts; // Total occurences by word.
+	private TaskScope sxUmxJobsScope; // Runs the JobLaunchers of the Sx -> UMx processes.
+	private TaskScope umxRMxJobsScope; // Runs the JobLaunchers of the UMx -> RMx processes.
+	private List<List<RecordBatch>> reducersBatches; // Couples (word, count) sent by each reducer.
+	private RunMerger runMerger; // For merging the sorted RMx files of the reducers.
+	private BlockingQueue<JobEvent> jobEvents; // Events published by all the JobLaunchers.
+	private Map<String, String> options; // Optional arguments, given as --name=value.
+	private SlaveTransport slaveTransport; // For sending the jobs to the slaves.
+	private long[] predictedReducersLoads; // Number of couples that each reducer should read.
+	private int topK; // Number of most frequent words to print, 0 for all of them.
+	private boolean isSpeculative; // True if backup attempts are sent for the slow jobs.
+	private Set<String> failedAdresses; // Machines lost during the jobs, which get no more jobs.
+	private int numberOfPartitions; // Number of UMx files written by each Sx -> UMx process.
+	private int numberOfReducers; // Number of UMx -> RMx processes.
+	private int slotsPerAdress; // Number of jobs that each slave runs at the same time.
+	private double reduceStart; // Fraction of the mappers committed before the reducers start.
+	private TaskAttempts reduceAttempts; // Attempts of the UMx -> RMx processes, once launched.
+	private List<Integer> committedMappers; // Sx -> UMx processes committed, in order, for reducers.
+	private Map<JobLauncher, List<RecordBatch>> attemptsBatches; // Couples of each reduce attempt.
+	private String job; // Name of the job run by the slaves.
+	private byte recordSeparator; // Byte that ends the records of the input file for the job.
 
 	
 //	Constructor that the main method calls to instantiate a Master object.
@@ -53,8 +97,13 @@ public class Master {
 		this.successAdresses = new ArrayList<String>();
 		this.sxUmxJobLaunchers = new ArrayList<JobLauncher>();
 		this.umxRMxJobLaunchers = new ArrayList<JobLauncher>();
-		this.keysAndTheirUmx = new HashMap<String, List<String>>();
-		this.keysAndCounts = new HashMap<String, Integer>();
+		this.sxUmxJobsScope = new TaskScope("sxumx-job");
+		this.umxRMxJobsScope = new TaskScope("umxrmx-job");
+		this.reducersBatches = new ArrayList<List<RecordBatch>>();
+		this.jobEvents = new LinkedBlockingQueue<JobEvent>(1024);
+		this.options = new HashMap<String, String>();
+		this.failedAdresses = new HashSet<String>();
+		this.committedMappers = new CopyOnWriteArrayList<Integer>();
 	}
 
 	
@@ -68,52 +117,131 @@ public class Master {
 		
 //		We first need to check if the number of arguments given is correct. If they are not, we
 //		throw an error.
-		if (args.length != 3) {
-			System.err.println("Must add <input file, adresses file, timeout in ms> as argument");
+		if (args.length < 3) {
+			System.err.println("Must add <input file, adresses file, timeout in ms> as argument, "
+					+ "followed by the options [--daemon-port=<port>, --top-k=<K>, "
+					+ "--speculation=off, --split-size=<bytes>, --mappers=<N>, --reducers=<N>, "
+					+ "--slots=<N>, --max-slaves=<N>, --reduce-start=<fraction>, "
+					+ "--job=<name>]");
 			System.exit(1);
 //		Otherwise we extract the arguments.
 		} else {
 			inputFile = new File(args[0]);
 			adressesFile = new File(args[1]);
 			connectionTestTimeout = Integer.parseInt(args[2]);
+			this.parseOptions(Arrays.copyOfRange(args, 3, args.length));
+		}
+		
+//		The jobs are sent via SSH, unless a daemon port is given, in which case they are sent to
+//		a Slave daemon running on each slave (started via SSH if needed).
+//		A daemon only runs the jobs of the files of the working directory, so the input file
+//		must be in it.
+		if (this.options.containsKey("daemon-port")) {
+			if (!this.isInWorkingDirectory(inputFile)) {
+				System.err.println("With --daemon-port, the input file must be in the working "
+						+ "directory " + this.workingDirectory);
+				System.exit(1);
+			}
+			this.slaveTransport = new DaemonTransport(
+					Integer.parseInt(this.options.get("daemon-port")), this.workingDirectory);
+		} else {
+			this.slaveTransport = new SSHTransport(this.workingDirectory);
+		}
+		
+//		With a top K, only the K most frequent words are sent by the reducers and printed.
+		if (this.options.containsKey("top-k")) {
+			this.topK = Integer.parseInt(this.options.get("top-k"));
+		}
+		
+//		A job much slower than the others is sent again to an idle slave, unless speculation is
+//		turned off.
+		this.isSpeculative = !"off".equals(this.options.get("speculation"));
+		
+//		Each slave runs one job at a time unless more slots are given. Every job already uses all
+//		the cores of its slave.
+		this.slotsPerAdress = Integer.parseInt(this.options.getOrDefault("slots", "1"));
+		
+//		The reducers are launched once this fraction of the mappers is committed, 1 for waiting
+//		for the end of the map phase.
+		this.reduceStart = Double.parseDouble(this.options.getOrDefault("reduce-start", 
+				String.valueOf(DEFAULT_REDUCE_START)));
+		
+//		The slaves count the words of the input file, unless another job is given. The result of
+//		a job is written to the file "<name>.txt". The names of the jobs and the byte that ends
+//		their records are shared with the slaves by JobCatalog.
+		this.job = this.options.getOrDefault("job", "wordcount");
+		if (!JobCatalog.NAMES.contains(this.job)) {
+			System.err.println("Unknown job " + this.job + ", jobs are " + JobCatalog.NAMES);
+			System.exit(1);
 		}
+		this.recordSeparator = JobCatalog.getRecordSeparator(this.job);
 		
 //		We create the necessary folders.
-		new File(this.workingDirectory + "Sx").mkdirs();
 		new File(this.workingDirectory + "UMx").mkdirs();
-		new File(this.workingDirectory + "Keys").mkdirs();
 		new File(this.workingDirectory + "RMx").mkdirs();
 		
 //		Now we have to test the SSH connection with each adress, and store the successful adresses.
 		this.testSSHConnections(adressesFile, connectionTestTimeout);
 		
-//		We now create subparts Sx of the input file for each successful adress.
+//		We now plan the splits Sx of the input file, of a fixed size or in a given number. The
+//		splits are only byte ranges of the input file, which is not copied.
 		this.splitInputFile(inputFile);
 		
-//		Then we launch one thread for each Sx file, via the JobLauncher class which implements
-//		the Runnable interface. Each one of these threads will connect to a successful adress 
-//		via SSH and tell it to run Slave.jar with the Sx -> UMx mode and the corresponding Sx file,
-//		which will make them compute the unsorted maps and write them to UMx files.
+//		Then we create one job for each split Sx, via the JobLauncher class which implements the
+//		Runnable interface. Each one of these jobs will be run in a thread which connects to a
+//		successful adress via SSH and tells it to run Slave.jar with the Sx -> UMx mode and the
+//		corresponding split, which will make it compute the unsorted maps and write them to UMx 
+//		files.
 		this.launchSxUMxJobs();
 		
-//		After having launched the jobs, we need to retrieve the keys sent by the different slaves
-//		via SSH.
-		this.retrieveSxUMxKeys();
-		
-//		Now we have to shuffle the retrieved keys, by splitting groups of keys for each slave that
-//		will run a UMx -> RMx process, and then launch the threads.
-		this.shuffleKeysAndLaunchUMxRMxJobs();
+//		The jobs are sent to the slaves as they get free slots, and we need to wait for the end
+//		of the jobs of the different slaves.
+//		Once enough mappers are committed, we shuffle the keys and launch the UMx -> RMx processes
+//		without waiting for the last mappers. The mappers have already partitioned the keys by
+//		hash, one UMx file per reducer, so we only have to give each slave that will run a 
+//		UMx -> RMx process the UMx files of its partition, and then launch the threads. The 
+//		reducers count the UMx files as the mappers commit them.
+		this.waitForSxUMxJobs();
+		if (this.reduceAttempts == null) {
+			this.shuffleKeysAndLaunchUMxRMxJobs();
+		}
 		
 //		Same as the Sx -> UMx phase, we need to retrieve the couples (key, count) sent by the 
 //		different slaves via SSH (they are sent in sorted order).
 		this.retrieveUMxRMxKeysCounts();
 		
-//		Finally we just have to sort the all the keys by their count, and prints them to a file.
-		this.sortAndPrintKeys();
+//		Finally we just have to merge the RMx files, which the reducers have sorted by count, 
+//		into a single file. With a top K, we only merge the K most frequent keys of each reducer
+//		instead.
+		if (this.topK > 0) {
+			this.mergeAndPrintTopKeys();
+		} else {
+			this.mergeAndPrintKeys();
+		}
 		
 	}
 	
 	
+//	Extracts the optional arguments, given as --name=value, and throws an error for any other
+//	argument or unknown option.
+	private void parseOptions(String[] optionalArgs) {
+		
+		List<String> knownOptions = Arrays.asList("daemon-port", "top-k", "speculation", 
+				"split-size", "mappers", "reducers", "slots", "max-slaves", "reduce-start", "job");
+		for (String optionalArg : optionalArgs) {
+			int equalIndex = optionalArg.indexOf('=');
+			if (!optionalArg.startsWith("--") || equalIndex < 0 
+					|| !knownOptions.contains(optionalArg.substring(2, equalIndex))) {
+				System.err.println("Unknown option " + optionalArg + ", options are " 
+						+ knownOptions);
+				System.exit(1);
+			}
+			this.options.put(optionalArg.substring(2, equalIndex), 
+					optionalArg.substring(equalIndex + 1));
+		}
+	}
+	
+	
 	private void testSSHConnections(File adressesFile, int connectionTestTimeout) {
 		
 //		Keeps track of time.
@@ -139,27 +267,54 @@ public class Master {
 				testers.add(new SSHConnectivityTester(adress));
 			}
 			
-//			Loops for each connection tester, and launches the threads.
+//			Loops for each connection tester, and launches it in a scope of tasks.
+			TaskScope testersScope = new TaskScope("ssh-tester");
 			for (SSHConnectivityTester tester : testers) {
-				tester.setThread(new Thread(tester));
-				tester.getThread().start();
+				testersScope.fork(tester);
 			}
 			
-//			Waits for timeout, then interrupt all the threads
-			Thread.sleep(connectionTestTimeout);
-			for (SSHConnectivityTester tester : testers) {
-				tester.getThread().interrupt();
+//			Waits until every tester has its answer, but no longer than the timeout. Then the
+//			testers still waiting are cancelled, which kills their SSH process.
+			if (!testersScope.join(connectionTestTimeout)) {
+				for (SSHConnectivityTester tester : testers) {
+					tester.cancel();
+				}
+				testersScope.cancel();
 			}
 			
-//			Checks the successful connections, and adds the successful adresses to a list.
+//			Checks the successful connections, and ranks them: the machines which can use the
+//			most cores for a job come first, then the ones with the lowest latency. The scheduler
+//			gives the jobs to the first adresses first, so the best machines get the first jobs
+//			and the backups. With a maximum number of slaves, only the best ones are kept.
+			List<SSHConnectivityTester> successTesters = new ArrayList<SSHConnectivityTester>();
 			for (SSHConnectivityTester tester : testers) {
 				if (tester.isConnectionSuccess()) {
-					this.successAdresses.add(tester.getAdress());
-					System.out.println("Connection with " + tester.getAdress() + " : Success");
+					successTesters.add(tester);
+					System.out.println("Connection with " + tester.getAdress() + " : Success ("
+							+ tester.getLatency() + " ms, " + tester.getNumberOfCores() 
+							+ " cores, " + (tester.getFreeMemory() >= 0 
+							? tester.getFreeMemory() / (1 << 20) + " MB free)" : "memory unknown)"));
 				} else {
 					System.out.println("Connection with " + tester.getAdress() + " : Failed");
 				}
 			}
+			Collections.sort(successTesters, new Comparator<SSHConnectivityTester>() {
+				@Override
+				public int compare(SSHConnectivityTester tester1, SSHConnectivityTester tester2) {
+					if (tester1.getUsableCores() != tester2.getUsableCores()) {
+						return Integer.compare(tester2.getUsableCores(), tester1.getUsableCores());
+					}
+					return Long.compare(tester1.getLatency(), tester2.getLatency());
+				}
+			});
+			int maxSlaves = Integer.parseInt(this.options.getOrDefault("max-slaves", 
+					String.valueOf(successTesters.size())));
+			for (SSHConnectivityTester tester : successTesters) {
+				if (this.successAdresses.size() < maxSlaves) {
+					this.successAdresses.add(tester.getAdress());
+				}
+			}
+			System.out.println("Slaves ranked: " + this.successAdresses);
 			
 //			If no successful connections, returns an error.
 			if (this.successAdresses.isEmpty()) {
@@ -188,6 +343,18 @@ public class Master {
 	}
 
 
+//	Returns true if the file is in the working directory (or in one of its subdirectories), once
+//	the links and the ".." are resolved.
+	private boolean isInWorkingDirectory(File file) {
+		try {
+			return file.getCanonicalPath().startsWith(
+					new File(this.workingDirectory).getCanonicalPath() + File.separator);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+
 	private void splitInputFile(File inputFile) {
 		
 //		Keeps track of time.
@@ -197,76 +364,51 @@ public class Master {
 //		Object that will read bytes from the input file.
 		FileInputStream inputReader = null;
 		
-//		Object that will write bytes to the Sx files.
-		FileOutputStream sxWriter = null;
-		
-//		Try-catch bloc to catch exceptions when trying to read or write files.
+//		Try-catch bloc to catch exceptions when trying to read files.
 		try {		
 			
-//			Initializes the reader.
+//			Initializes the reader. We only read a few bytes around each split boundary, with
+//			positional reads on its channel.
 			inputReader = new FileInputStream(inputFile);
+			FileChannel inputChannel = inputReader.getChannel();
+			long inputLength = inputChannel.size();
 
-//			We want to split the file into a number of parts equal to the number of successful
-//			adress we have, so that each slave executes one thread. So we need to compute the size
-//			of each part in bytes.
-			int sizePerSplitFile = (int) (inputFile.length() / this.successAdresses.size() + 1);
+//			We want to split the file into parts of about the given split size, or into the given
+//			number of parts, independently of the number of slaves: there are usually more splits
+//			than slaves, so that a slave which ends early takes another split. So we need to 
+//			compute the size of each part in bytes. It is a long, the input file can be bigger than
+//			2 GB.
+			long splitSize = Long.parseLong(this.options.getOrDefault("split-size", 
+					String.valueOf(DEFAULT_SPLIT_SIZE)));
+			int numberOfSplits = (int) Math.max(1, (inputLength + splitSize - 1) / splitSize);
+			if (this.options.containsKey("mappers")) {
+				numberOfSplits = Integer.parseInt(this.options.get("mappers"));
+			}
+			long sizePerSplitFile = inputLength / numberOfSplits + 1;
 			
-//			Buffer of the right size, in which we will store the bytes read from the input file
-//			for each part.
-			byte[] buffer = new byte[sizePerSplitFile];
+			this.inputFile = inputFile;
+			this.splitStarts = new long[numberOfSplits];
+			this.splitEnds = new long[numberOfSplits];
 			
 //			We actually won't take exactly the same number of bytes for each part because we don't
-//			want to cut words while splitting the file. We will cut only at spaces, so we need to
-//			keep track of the real number of bytes read for each part.
-			int readSize = 0;
-			
-//			We now loop for each split we need to create.
-			int splitNumber = 0;			
-			while (splitNumber < this.successAdresses.size()
-//					For each loop we read "sizePerSplit" amount of bytes from the input file and
-//					we store them into the buffer, unless we had already reached the end of the
-//					file (which shouldn't happen if we have split the file correctly, but
-//					better be careful !) in which case we break out of the loop.
-//					In practice, "readSize" will here always be equal to "sizePerSplit" unless
-//					we are in the last part of the loop, in which case it will be equal to the
-//					number of remaining bytes of the input file.
-					&& (readSize = inputReader.read(buffer, 0, sizePerSplitFile)) != -1) {
-								
-//				We create a new output file with an object which we will write to it.
-				sxWriter = new FileOutputStream("Sx/S_" + splitNumber + ".txt");
-			
-//				We write the content of the buffer to the output file. We limit the content to
-//				the same amount "readSize" we have read from the input file.
-				sxWriter.write(buffer, 0, readSize);
-
-//				We now need to add additional bytes until we reach a space in the input file,
-//				so we don't cut words.
-//				First we try to read one additional byte into the start of the buffer, to see
-//				if we have reached the end of file. As we have already written the buffer to the
-//				output size, we can overwrite its values.
-				if (inputReader.read(buffer, 0, 1) != -1) {
-//					If it's a success, we now loop for each following byte of the input file
-//					and add them to the buffer keeping track of the number of additional bytes
-//					read. We break the loop	when we have found a space (which byte representation
-//					is "32"), or if we have reached the end of the input file.
-					int additionalBytes = 1;
-					while (inputReader.read(buffer, additionalBytes, 1) != -1 
-							&& buffer[additionalBytes] != 32) {
-						additionalBytes++;
-					}
-					
-//					Now we just need to write the additional bytes from the buffer. Note that the
-//					space at which we split the file hasn't been added to the buffer, so it won't
-//					be present in the output file.
-					sxWriter.write(buffer, 0, additionalBytes);
+//			want to cut records (words or lines) while splitting the file. We will cut only at the
+//			separator of the records of the job: a split ends at the first separator after its
+//			nominal end, and the next split starts after this separator.
+			long splitStart = 0;
+			for (int splitNumber = 0; splitNumber < numberOfSplits; splitNumber++) {
+				
+				long splitEnd = inputLength;
+				if (splitStart + sizePerSplitFile < inputLength) {
+					splitEnd = findNextSeparator(inputChannel, splitStart + sizePerSplitFile, 
+							this.recordSeparator);
 				}
+				this.splitStarts[splitNumber] = splitStart;
+				this.splitEnds[splitNumber] = splitEnd;
+				System.out.println("-> planned split S_" + splitNumber + " = [" + splitStart + ", " 
+						+ splitEnd + ")");
 				
-//				We have now finished to write this output file.
-				System.out.println("-> wrote file S_" + splitNumber + ".txt");
-
-//				Increments the counter for next loop.
-				splitNumber++;
-							
+//				The separator at which we split the file belongs to no split.
+				splitStart = Math.min(splitEnd + 1, inputLength);
 			}
 			
 //			Prints the elapsed time.
@@ -274,7 +416,7 @@ public class Master {
 					System.currentTimeMillis() - startTime) + " ms.");
 			System.out.println("-----------------------------------------------------");
 
-//		Catches any exception that could occur when trying to read files or write files.
+//		Catches any exception that could occur when trying to read files.
 		} catch (Exception e) {
 			e.printStackTrace();
 			
@@ -282,101 +424,159 @@ public class Master {
 		} finally {
 			try {
 				inputReader.close();
-				sxWriter.close();
 			} catch (IOException e) { 
 				e.printStackTrace(); 
 			}
 		}
 		
 	}
+	
+	
+//	Returns the position of the first separator (like a space, which byte representation is "32")
+//	at or after the given position, or the length of the file if there is none. The bytes are read
+//	by blocks with positional reads. It is package-private for the benchmarks of the splitting
+//	phase.
+	static long findNextSeparator(FileChannel inputChannel, long position, byte separator) 
+			throws IOException {
+		
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (true) {
+			buffer.clear();
+			int readSize = inputChannel.read(buffer, position);
+			if (readSize <= 0) {
+				return inputChannel.size();
+			}
+			for (int i = 0; i < readSize; i++) {
+				if (buffer.get(i) == separator) {
+					return position + i;
+				}
+			}
+			position = position + readSize;
+		}
+	}
 
 
 	private void launchSxUMxJobs() {
 		
+//		The number of UMx -> RMx processes is the number of available adresses, unless it is
+//		given. It is chosen now, as the mappers write PARTITIONS_PER_REDUCER partitions for each.
+		this.numberOfReducers = this.successAdresses.size();
+		if (this.options.containsKey("reducers")) {
+			this.numberOfReducers = Integer.parseInt(this.options.get("reducers"));
+		}
+		this.numberOfPartitions = this.numberOfReducers * PARTITIONS_PER_REDUCER;
+		
 //		We create a list "sxUmxJobLaunchers" containing one new JobLauncher for each
-//		Sx file we have.
-		for (int i = 0; i < this.successAdresses.size(); i++) {
+//		split Sx we have.
+		for (int i = 0; i < this.splitStarts.length; i++) {
 			
-//			Sets the current adress.
-			String adress = this.successAdresses.get(i);
-			
-//			A new JobLauncher is initialized with the "SXUMX" mode, the adress of the
-//			machine (slave) associated with it, the expected path of the output UMx file,
-//			and the path of the split file Sx on which the slave will operate, as well as 
-//			the directory containing the jars.
-			this.sxUmxJobLaunchers.add(new JobLauncher("SXUMX", adress, 
-					this.workingDirectory + "UMx/UM_" + adress + ".txt",
-					this.workingDirectory + "Sx/S_" + i + ".txt", this.workingDirectory));
-
-//			We set the JobLauncher field "thread" to be the new Thread based upon this JobLauncher
-//			(JobLauncher implements the Runnable interface).
-			this.sxUmxJobLaunchers.get(this.sxUmxJobLaunchers.size() - 1).setThread(
-					new Thread(this.sxUmxJobLaunchers.get(this.sxUmxJobLaunchers.size() - 1)));
-			
-//			Now we start the thread, which will launch the Sx -> UMx process via SSH.
-			this.sxUmxJobLaunchers.get(this.sxUmxJobLaunchers.size() - 1).getThread().start();
+//			A new JobLauncher is initialized with the "SXUMX" mode, the name of the job, no adress 
+//			(the slave is chosen when the job is scheduled), the prefix of the output UMx files and
+//			their number (several for each UMx -> RMx process), the input file and the byte range
+//			of the split Sx on which the slave will operate, as well as the directory containing 
+//			the jars. It is not run itself, the attempts sent to the slaves are created from it.
+			this.sxUmxJobLaunchers.add(new JobLauncher("SXUMX", this.job, null, 
+					this.getUmxFilesPrefix() + i, this.numberOfPartitions,
+					this.inputFile.getAbsolutePath(), this.splitStarts[i], this.splitEnds[i], 0,
+					this.slaveTransport, this.jobEvents));
 		}
+		System.out.println(this.sxUmxJobLaunchers.size() + " jobs for " 
+				+ this.successAdresses.size() + " slaves with " + this.slotsPerAdress 
+				+ " slot(s) each");
+		System.out.println("Jobs running on " 
+				+ (this.sxUmxJobsScope.isVirtual() ? "virtual" : "platform") + " threads");
 						
 	}
 
 
-	private void retrieveSxUMxKeys() {
+//	Returns the prefix of the UMx files. The files of mapper i are named 
+//	"<prefix><i>_<partition>.bin" once committed.
+	private String getUmxFilesPrefix() {
+		return this.workingDirectory + "UMx/UM_";
+	}
+
+
+	private void waitForSxUMxJobs() {
 		
 //		Keeps track of time.
 		long startTime = System.currentTimeMillis();
 		System.out.println("Starting mapping phase:");
 		
-//		We will keep checking for new keys to retrieve until all slaves have ended their job
-//		(which means no more keys will be sent by the slaves). Keys are sent in a BlockingQueue
-//		which is an array that manages concurrent writes and reads. So the slave can write keys at
-//		at its tail while the master can read and remove keys from its head.
-//		We add this keys to a Map and associate each one with the list of corresponding UMx
-//		(files that contains the key).
-		int numberOfEndedThreads = 0;
-		while (numberOfEndedThreads != this.successAdresses.size()) {
+//		We will keep waiting until all slaves have ended their job. Every JobLauncher publishes
+//		the events of its slave to a single BlockingQueue, on which the master blocks until an
+//		event is available, so it doesn't use any CPU while waiting. The keys are only written to
+//		the UMx files, the mappers don't send them to the master.
+//		The master wakes up regularly to send a backup attempt of the jobs which are much slower
+//		than the others. All the attempts of a job have the number of the job as mapper.
+//		Once enough mappers are committed, the reducers are launched, and their events are 
+//		handled in the same loop until the end of the map phase.
+		TaskAttempts mapAttempts = new TaskAttempts(this.sxUmxJobLaunchers, this.successAdresses,
+				this.slotsPerAdress, this.sxUmxJobsScope, this.isSpeculative, this.failedAdresses);
+		while (mapAttempts.getNumberOfCommittedJobs() != mapAttempts.getNumberOfJobs()) {
 			
-//			We loop for each slave and check if a new key has been sent by it.
-			for (JobLauncher jobLauncher : this.sxUmxJobLaunchers) {
-				
-				String word;
-//				If the slave is still active, and the BlockingQueue contains a value, we check
-//				it, otherwise we do nothing and go to the next slave.
-				if (jobLauncher.isJobEnded() == false && 
-						(word = jobLauncher.getOutputArray().poll()) != null) {
-					
-//					If the value is "END OF PROCESS SXUMX", then it means that the slave has ended
-//					its job, so we set the appropriate boolean to "true", and increment the number
-//					of finished jobs.
-					if (word.equals("END OF PROCESS SXUMX")) {
-						jobLauncher.setJobEnded(true);
-						numberOfEndedThreads++;
-						
-//					Otherwise it is a new key.
-					} else if (!word.equals("")) {					
-//						If this key wasn't already present in the key/list_of_UMx Map, then we
-//						add it and initialize its associated UMx list.
-						if (!this.keysAndTheirUmx.containsKey(word)) {
-							this.keysAndTheirUmx.put(word, new ArrayList<String>());
-						}						
-//						We add the UMx to the list of UMx associated with this key.
-						this.keysAndTheirUmx.get(word).add(jobLauncher.getOutputUmxFile());
-					}				
-				}
-			}				
-		}
-		
-//		We now wait for every thread to die, which is actually quite useless because at this point,
-//		each slave has finished its job. The "join" method blocks until the corresponding thread
-//		dies, or does nothing if it is already dead.
-		for (JobLauncher jobLauncher : this.sxUmxJobLaunchers) {
+//			Sends the pending jobs to the free slots, and checks the running jobs.
+			this.checkAttempts(mapAttempts);
+			if (this.reduceAttempts != null) {
+				this.checkAttempts(this.reduceAttempts);
+			} else if (mapAttempts.getNumberOfCommittedJobs() 
+					>= this.reduceStart * mapAttempts.getNumberOfJobs()) {
+				this.shuffleKeysAndLaunchUMxRMxJobs();
+			}
+			
+//			Waits for the next event published by one of the slaves.
+			JobEvent jobEvent;
 			try {
-				jobLauncher.getThread().join();
-			} catch (InterruptedException e) { 
+				jobEvent = this.jobEvents.poll(TaskAttempts.CHECK_PERIOD, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
 				e.printStackTrace();
+				break;
+			}
+			if (jobEvent == null) {
+				continue;
+			}
+			JobLauncher jobLauncher = jobEvent.getJobLauncher();
+			if (this.reduceAttempts != null && this.reduceAttempts.getJob(jobLauncher) >= 0) {
+				this.handleUMxRMxEvent(jobEvent);
+				continue;
+			}
+			int mapper = mapAttempts.getJob(jobLauncher);
+			if (mapper < 0) {
+				continue;
+			}
+			
+//			If it is a failure event, the job is sent again to another slave.
+			if (jobEvent.getType() == JobEvent.Type.JOB_FAILED) {
+				this.retry(mapAttempts, jobLauncher);
+			
+//			If it is an end event, then it means that the slave has ended its job. If it is the
+//			first attempt of the job to end, its UMx files are committed and it becomes the
+//			JobLauncher of the job. The reducers already launched are told that they can count its
+//			UMx files: they never read a file which we haven't committed, so the files left in
+//			the UMx directory by a previous run are ignored.
+			} else if (jobEvent.getType() == JobEvent.Type.JOB_ENDED) {
+				if (this.commit(mapAttempts, jobLauncher)) {
+					this.sxUmxJobLaunchers.set(mapper, jobLauncher);
+					this.committedMappers.add(mapper);
+					if (this.reduceAttempts != null) {
+						for (JobLauncher reduceAttempt : this.reduceAttempts.getRunningAttempts()) {
+							reduceAttempt.sendCommittedMappers();
+						}
+					}
+				}
 			}
 		}
 		
-//		Prints the elapsed time
+//		We now wait for every task of the scope to end, which is actually quite useless because at
+//		this point, each slave has finished its job. The "join" method blocks until the tasks end,
+//		or does nothing if they have already ended.
+		try {
+			this.sxUmxJobsScope.join();
+		} catch (InterruptedException e) { 
+			e.printStackTrace();
+		}
+		mapAttempts.discardUncommittedOutputs();
+		
+//		Prints the elapsed time.
 		System.out.println("Mapping phase duration = " + (
 				System.currentTimeMillis() - startTime) + " ms.");
 		System.out.println("-----------------------------------------------------");
@@ -388,80 +588,125 @@ public class Master {
 		
 //		Keeps track of time.
 		long startTime = System.currentTimeMillis();
-		System.out.println("Starting shuffling phase:");
-		
-//		Sets the number of UMx -> RMx processes to the number of available adresses.
-		int numberOfUMxRMxProcesses = this.successAdresses.size();
-
-//		We set the number of keys in each group such that the keys are fairly split between each
-//		one of the machines. So if P is the number of processes, K the number of keys, then the
-//		p first processes will have k+1 keys each, and the remaining processes will have k keys
-//		each, where K/P = k*P + p.
-		int k = this.keysAndTheirUmx.size() / numberOfUMxRMxProcesses;
-		int p = this.keysAndTheirUmx.size() % numberOfUMxRMxProcesses;
-		
-//		Then we fill the array describing the repartition of the number of keys between each
-//		process.
-		int[] keysRepartitionByProcess = new int[numberOfUMxRMxProcesses];
-		for (int i = 0; i < keysRepartitionByProcess.length ; i++) {
-			if (i < p) {
-				keysRepartitionByProcess[i] = k + 1;
-			} else {
-				keysRepartitionByProcess[i] = k;
+		int numberOfCommittedMappers = 0;
+		for (JobLauncher sxUmxJobLauncher : this.sxUmxJobLaunchers) {
+			if (sxUmxJobLauncher.isJobEnded()) {
+				numberOfCommittedMappers++;
 			}
 		}
-		
-//		Creates an iterator over the retrieved keys (which will avoid a useless copy of the data).
-		Iterator<String> keyIterator = this.keysAndTheirUmx.keySet().iterator();
+		System.out.println("Starting shuffling phase (" + numberOfCommittedMappers + " of " 
+				+ this.sxUmxJobLaunchers.size() + " mappers committed):");
+		
+//		Each mapper has written PARTITIONS_PER_REDUCER partitions for each UMx -> RMx process, and
+//		sent the number of couples written to each partition, which is the weight of the partition
+//		for its reducer. If the reducers are launched before the end of the map phase, the weights
+//		are only known for the committed mappers, which are a sample of the whole input.
+//		A few very frequent words can make a partition much heavier than the others, so we assign 
+//		the partitions by weight instead of giving the same number of partitions to each reducer.
+		List<List<Integer>> reducersPartitions = this.assignPartitionsToReducers(
+				this.numberOfReducers, this.numberOfPartitions);
 		
 //		We loop for each process needed.
-		for (int i = 0; i < this.successAdresses.size(); i++) {
+		for (int i = 0; i < this.numberOfReducers; i++) {
 			
-//			Sets the current adress.
-			String adress = this.successAdresses.get(i);	
+//			The input files UMx of reducer i are the UMx files of its partitions, for each mapper,
+//			counted by partition so that the reducer can count each partition in a separate task.
+//			The reducer doesn't need the list of its keys, every word in these files belongs to its
+//			partitions. It rebuilds the names of the files from their prefix, the number of 
+//			mappers and its partitions. The files of the mappers still running don't exist yet, the
+//			reducer waits for us to send it the number of each mapper once it is committed.
+			System.out.println("-> reducer " + i + ": partitions " + reducersPartitions.get(i) 
+					+ ", predicted load = " + this.predictedReducersLoads[i] + " couples");
 			
-//			Array of keys which will be sent to the slave with the appropriate values.
-			String[] keysToSend = new String[keysRepartitionByProcess[i]];
-			
-//			We now fill the array of keys using the iterator previously created. Note that because
-//			of last "keysRepartitionByProcess", we don't need to check if the key iterator still 
-//			has elements.
-			for (int j = 0; j < keysToSend.length; j++) {
-				keysToSend[j] = keyIterator.next();
-			}
-			
-//			We then set the values of the input files UMx to be sent, which is the set of all the
-//			UMx associated with the keys to send.
-			Set<String> inputUmxFilesSet = new HashSet<String>();
-			for (String key : keysToSend) {
-				inputUmxFilesSet.addAll(this.keysAndTheirUmx.get(key));
-			}
-			
-//			A new JobLauncher is initialized with the "UMXRMX" mode, the adress of the
-//			machine (slave) associated with it, the array of keys to send, the expected 
-//			path of the output UMx file, and the paths of the files UMx on which the slave 
-//			will operate, as well as the project directory.
-			this.umxRMxJobLaunchers.add(new JobLauncher("UMXRMX", adress, 
-					Arrays.copyOf(keysToSend, keysToSend.length),
-					this.workingDirectory + "RMx/RM_" + adress + ".txt", inputUmxFilesSet,
-					this.workingDirectory));
-
-//			We set the JobLauncher field "thread" to be the new Thread based upon this JobLauncher
-//			(JobLauncher implements the Runnable interface).
-			this.umxRMxJobLaunchers.get(this.umxRMxJobLaunchers.size() - 1).setThread(
-					new Thread(this.umxRMxJobLaunchers.get(this.umxRMxJobLaunchers.size() - 1)));
-			
-//			Now we start the thread, which will launch the UMx -> RMx process via SSH.
-			this.umxRMxJobLaunchers.get(this.umxRMxJobLaunchers.size() - 1).getThread().start();			
+//			A new JobLauncher is initialized with the "UMXRMX" mode, the name of the job, no adress
+//			(the slave is chosen when the job is scheduled), the expected path of the output RMx 
+//			file, and the UMx files on which the slave will operate. The attempts sent to the slaves
+//			are created from it.
+			this.umxRMxJobLaunchers.add(new JobLauncher("UMXRMX", this.job, null, 
+					this.workingDirectory + "RMx/RM_" + i + ".bin", this.getUmxFilesPrefix(), 
+					this.sxUmxJobLaunchers.size(), reducersPartitions.get(i), this.committedMappers, 
+					this.topK, 0, this.slaveTransport, this.jobEvents));
+			this.reducersBatches.add(new ArrayList<RecordBatch>());
 		}
 		
-//		Prints the number of keys and the elapsed time
-		System.out.println(this.keysAndTheirUmx.size() + " different words were found");
+//		The reducers are sent to the slaves as they get free slots. Their events are handled with
+//		those of the mappers until the end of the map phase. Couples are published in batches to
+//		the same BlockingQueue as in the Sx -> UMx phase, and the RMx files are merged by the 
+//		RunMerger.
+		this.runMerger = new RunMerger(JobCatalog.getValueCodec(this.job));
+		this.attemptsBatches = new HashMap<JobLauncher, List<RecordBatch>>();
+		this.reduceAttempts = new TaskAttempts(this.umxRMxJobLaunchers, this.successAdresses, 
+				this.slotsPerAdress, this.umxRMxJobsScope, this.isSpeculative, this.failedAdresses);
+		this.checkAttempts(this.reduceAttempts);
+		
+//		Prints the elapsed time.
 		System.out.println("Shuffling phase duration = " + (
 				System.currentTimeMillis() - startTime) + " ms.");
 		System.out.println("-----------------------------------------------------");
 		
 	}
+	
+	
+//	Assigns the partitions to the reducers so that their loads (number of couples to read) are
+//	balanced: the partitions are taken from the heaviest to the lightest, and each one is given to
+//	the reducer with the lowest load so far, or with the fewest partitions if the loads are equal
+//	(they are all empty if no mapper is committed yet). Returns the partitions of each reducer, and
+//	sets their predicted loads, extrapolated to every mapper if some are not committed yet.
+	private List<List<Integer>> assignPartitionsToReducers(int numberOfReducers, 
+			int numberOfPartitions) {
+		
+//		The weight of a partition is the sum of the couples written to it by each mapper. If a
+//		mapper didn't send its statistics, its partitions are considered empty.
+		final long[] partitionsWeights = new long[numberOfPartitions];
+		int numberOfWeightedMappers = 0;
+		for (JobLauncher sxUmxJobLauncher : this.sxUmxJobLaunchers) {
+			long[] stats = sxUmxJobLauncher.getStats();
+			if (stats != null) {
+				numberOfWeightedMappers++;
+			}
+			for (int partition = 0; stats != null && partition < stats.length 
+					&& partition < numberOfPartitions; partition++) {
+				partitionsWeights[partition] = partitionsWeights[partition] + stats[partition];
+			}
+		}
+		
+		List<Integer> sortedPartitions = new ArrayList<Integer>();
+		for (int partition = 0; partition < numberOfPartitions; partition++) {
+			sortedPartitions.add(partition);
+		}
+		Collections.sort(sortedPartitions, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer partition1, Integer partition2) {
+				return Long.compare(partitionsWeights[partition2], partitionsWeights[partition1]);
+			}
+		});
+		
+		List<List<Integer>> reducersPartitions = new ArrayList<List<Integer>>();
+		for (int i = 0; i < numberOfReducers; i++) {
+			reducersPartitions.add(new ArrayList<Integer>());
+		}
+		this.predictedReducersLoads = new long[numberOfReducers];
+		for (int partition : sortedPartitions) {
+			int lightestReducer = 0;
+			for (int i = 1; i < numberOfReducers; i++) {
+				if (this.predictedReducersLoads[i] < this.predictedReducersLoads[lightestReducer]
+						|| this.predictedReducersLoads[i] == this.predictedReducersLoads[lightestReducer]
+						&& reducersPartitions.get(i).size() 
+						< reducersPartitions.get(lightestReducer).size()) {
+					lightestReducer = i;
+				}
+			}
+			reducersPartitions.get(lightestReducer).add(partition);
+			this.predictedReducersLoads[lightestReducer] = 
+					this.predictedReducersLoads[lightestReducer] + partitionsWeights[partition];
+		}
+		for (int i = 0; numberOfWeightedMappers > 0 && i < numberOfReducers; i++) {
+			this.predictedReducersLoads[i] = this.predictedReducersLoads[i] 
+					* this.sxUmxJobLaunchers.size() / numberOfWeightedMappers;
+		}
+		
+		return reducersPartitions;
+	}
 
 
 	private void retrieveUMxRMxKeysCounts() {
@@ -470,53 +715,54 @@ public class Master {
 		long startTime = System.currentTimeMillis();
 		System.out.println("Starting reducing phase:");
 	
-//		We will keep checking for new couples to retrieve until all slaves have ended their job
-//		(which means no more couples will be sent by the slaves). Couples are sent in a 
-//		BlockingQueue, like in the Sx -> UMx phase.
-//		We add this couples to a Map, and we also add the keys to sorted lists (each 
-//		JobLauncher has one as a field).
-		int numberOfEndedThreads = 0;
-		while (numberOfEndedThreads != this.successAdresses.size()) {
+//		We will keep waiting for new couples to retrieve until all slaves have ended their job
+//		(which means no more couples will be sent by the slaves). The reducers have been launched
+//		during the map phase or just after it, and some of them may have sent couples already.
+//		Only the reducers of a top K job send couples, we keep the batches of each reducer in the
+//		order in which it sent them. Otherwise the reducers only write their sorted RMx file, and
+//		we open it for the merge as soon as the reducer has ended, while the others are still
+//		running.
+//		As in the Sx -> UMx phase, slow jobs get a backup attempt. The batches are kept for each
+//		attempt, and only those of the committed attempt of each job are merged.
+		while (this.reduceAttempts.getNumberOfCommittedJobs() 
+				!= this.reduceAttempts.getNumberOfJobs()) {
 			
-//			We loop for each slave and check if a new couple has been sent by it.
-			for (JobLauncher jobLauncher : this.umxRMxJobLaunchers) {
-				
-				String couple;
-//				If the slave is still active, and the BlockingQueue contains a value, we check
-//				it, otherwise we do nothing and go to the next slave.
-				if (jobLauncher.isJobEnded() == false 
-						&& (couple = jobLauncher.getOutputArray().poll()) != null) {
-					
-//					If the value is "END OF PROCESS UMXRMX", then it means that the slave has ended
-//					its job, so we set the appropriate boolean to "true", and increment the number
-//					of finished jobs.
-					if (couple.equals("END OF PROCESS UMXRMX")) {
-						jobLauncher.setJobEnded(true);
-						numberOfEndedThreads++;
-						
-//					Otherwise it is a new couple.
-					} else {	
-						
-//						Splits the couple into a key and a count.
-						String[] keyAndCount = couple.split(" ");
-						
-//						Adds them to the key_count Map.
-						this.keysAndCounts.put(keyAndCount[0], Integer.parseInt(keyAndCount[1]));		
-					}								
-				}			
-			}				
-		}
-		
-//		We now wait for every thread to die. This time it is useful because while we are retrieving
-//		the couples, the slaves are writing these couples to RMx files.
-		for (JobLauncher jobLauncher : this.umxRMxJobLaunchers) {
+//			Sends the pending jobs to the free slots, and checks the running jobs.
+			this.checkAttempts(this.reduceAttempts);
+			
+//			Waits for the next event published by one of the slaves.
+			JobEvent jobEvent;
 			try {
-				jobLauncher.getThread().join();
-			} catch (InterruptedException e) { 
-				e.printStackTrace(); 
+				jobEvent = this.jobEvents.poll(TaskAttempts.CHECK_PERIOD, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				break;
+			}
+			if (jobEvent != null) {
+				this.handleUMxRMxEvent(jobEvent);
 			}
 		}
 		
+//		We now wait for every task of the scope to end. This time it is useful because while we are
+//		retrieving the couples, the slaves are writing these couples to RMx files.
+		try {
+			this.umxRMxJobsScope.join();
+		} catch (InterruptedException e) { 
+			e.printStackTrace(); 
+		}
+		this.reduceAttempts.discardUncommittedOutputs();
+		
+//		Prints the predicted and actual load of each reducer (the actual number of couples is sent
+//		by the reducer at the end of its job).
+		for (int i = 0; i < this.umxRMxJobLaunchers.size(); i++) {
+			JobLauncher jobLauncher = this.umxRMxJobLaunchers.get(i);
+			long[] stats = jobLauncher.getStats();
+			System.out.println("-> reducer " + jobLauncher.getAdress() + ": predicted load = " 
+					+ this.predictedReducersLoads[i] + " couples, actual load = " 
+					+ (stats != null ? stats[0] + " couples" : "unknown") + " in " 
+					+ jobLauncher.getDuration() + " ms");
+		}
+		
 //		Prints the elapsed time
 		System.out.println("Reducing phase duration = " + (
 				System.currentTimeMillis() - startTime) + " ms.");
@@ -524,15 +770,161 @@ public class Master {
 	}
 	
 
-	private void sortAndPrintKeys() {
+//	Handles an event published by an attempt of a UMx -> RMx process, during the map phase or 
+//	after it.
+	private void handleUMxRMxEvent(JobEvent jobEvent) {
+		
+		JobLauncher jobLauncher = jobEvent.getJobLauncher();
+		int reducer = this.reduceAttempts.getJob(jobLauncher);
+		if (reducer < 0) {
+			return;
+		}
+		
+//		If it is a failure event, the couples already sent by the attempt are dropped and the job
+//		is sent again to another slave.
+		if (jobEvent.getType() == JobEvent.Type.JOB_FAILED) {
+			this.attemptsBatches.remove(jobLauncher);
+			this.retry(this.reduceAttempts, jobLauncher);
+			
+//		If it is an end event, then it means that the slave has ended its job. If it is the first
+//		attempt of the job to end, its RMx file is committed and it becomes the JobLauncher of the
+//		job.
+		} else if (jobEvent.getType() == JobEvent.Type.JOB_ENDED) {
+			if (this.commit(this.reduceAttempts, jobLauncher)) {
+				this.umxRMxJobLaunchers.set(reducer, jobLauncher);
+				if (this.attemptsBatches.containsKey(jobLauncher)) {
+					this.reducersBatches.set(reducer, this.attemptsBatches.get(jobLauncher));
+				}
+				if (this.topK <= 0) {
+					try {
+						this.runMerger.addRun(new File(jobLauncher.getOutputRmxFile()));
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+			this.attemptsBatches.remove(jobLauncher);
+			
+//		Otherwise it is a batch of new couples. The couples are already decoded, we just keep the
+//		batch.
+		} else {
+			if (!this.attemptsBatches.containsKey(jobLauncher)) {
+				this.attemptsBatches.put(jobLauncher, new ArrayList<RecordBatch>());
+			}
+			this.attemptsBatches.get(jobLauncher).add(jobEvent.getRecords());
+		}
+	}
+	
+	
+//	Checks the running attempts of a phase, to send again the lost jobs and the backups of the
+//	slow jobs. We stop if a lost job can't be sent again, as the phase can't end without it.
+	private void checkAttempts(TaskAttempts taskAttempts) {
+		
+		if (!taskAttempts.checkAttempts()) {
+			System.err.println("Error : a job was lost and can't be sent again");
+			System.exit(1);
+		}
+	}
+	
+	
+//	Sends again the job of a failed attempt to another slave. We stop if it can't be sent again.
+	private void retry(TaskAttempts taskAttempts, JobLauncher failedAttempt) {
+		
+		if (!taskAttempts.retry(failedAttempt)) {
+			System.err.println("Error : the job of " + failedAttempt.getAdress() 
+					+ " can't be sent again");
+			System.exit(1);
+		}
+	}
+	
+	
+//	Commits an attempt which has sent its end signal, and returns true if it is the first attempt of
+//	its job to end. The next phase can't run without the outputs of the job, so we stop if they
+//	can't be committed.
+	private boolean commit(TaskAttempts taskAttempts, JobLauncher attempt) {
+		
+		try {
+			return taskAttempts.commit(attempt);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Error : the outputs of " + attempt.getAdress() 
+					+ " can't be committed");
+			System.exit(1);
+			return false;
+		}
+	}
+	
+
+	private void mergeAndPrintKeys() {
 		
 //		Keeps track of time.
 		long startTime = System.currentTimeMillis();
 		System.out.println("Starting assembling phase:");
 		
-//		We need to sort the list of keys by their count, using our custom Comprator.
-		List<String> sortedKeys = new ArrayList<String>(this.keysAndCounts.keySet());
-		Collections.sort(sortedKeys, new KeyComparator(this.keysAndCounts));
+//		Object for writing the result file.
+		PrintWriter resultWriter = null;
+		
+//		Try-catch bloc to prevent error while writing the file.
+		try {
+			
+//			Initializes the writer. The keys are written in UTF-8, like the slaves encode them.
+			resultWriter = new PrintWriter(new BufferedWriter(new FileWriter(this.job + ".txt",
+					StandardCharsets.UTF_8), 1 << 16));
+			
+//			We just have to merge the RMx files to the output file. Only the current couple of 
+//			each file is in memory.
+			final PrintWriter keysWriter = resultWriter;
+			long writtenCouples = this.runMerger.mergeTo(new CoupleWriter() {
+				@Override
+				public void write(byte[] bytes, int offset, int length, long count) {
+					keysWriter.write(new String(bytes, offset, length, StandardCharsets.UTF_8) 
+							+ " " + count + "\n");
+				}
+			});
+			System.out.println("-> merged " + writtenCouples + " couples from " 
+					+ this.umxRMxJobLaunchers.size() + " RMx files");
+			
+//		Catches errors that can occur while writing to the file.
+		} catch (Exception e) {
+			e.printStackTrace();
+
+//		Closes the opened stream to prevent memory leak.
+		} finally {
+			resultWriter.close();
+		}
+		
+		this.printAssemblingEnd(startTime);
+	}
+	
+	
+	private void mergeAndPrintTopKeys() {
+		
+//		Keeps track of time.
+		long startTime = System.currentTimeMillis();
+		System.out.println("Starting assembling phase (top " + this.topK + "):");
+		
+//		Each reducer has sent its K most frequent keys, from the most frequent. We merge these
+//		sorted lists with a heap holding the current position in each list, ordered like the lists
+//		(count, then key). We stop as soon as K keys are printed.
+		final List<List<RecordBatch>> reducersBatches = this.reducersBatches;
+		PriorityQueue<int[]> positions = new PriorityQueue<int[]>(reducersBatches.size() + 1, 
+				new Comparator<int[]>() {
+			@Override
+			public int compare(int[] position1, int[] position2) {
+				RecordBatch batch1 = reducersBatches.get(position1[0]).get(position1[1]);
+				RecordBatch batch2 = reducersBatches.get(position2[0]).get(position2[1]);
+				int countComparison = Long.compare(batch2.getCount(position2[2]), 
+						batch1.getCount(position1[2]));
+				return countComparison != 0 ? countComparison 
+						: BlockFormat.compareKeys(batch1.getKey(position1[2]), 
+								batch2.getKey(position2[2]));
+			}
+		});
+		for (int reducer = 0; reducer < reducersBatches.size(); reducer++) {
+			if (!reducersBatches.get(reducer).isEmpty()) {
+				positions.add(new int[] {reducer, 0, 0});
+			}
+		}
 		
 //		Object for writing the result file.
 		PrintWriter resultWriter = null;
@@ -540,12 +932,27 @@ public class Master {
 //		Try-catch bloc to prevent error while writing the file.
 		try {
 			
-//			Initializes the writer.
-			resultWriter = new PrintWriter("wordcount.txt");
+//			Initializes the writer. The keys are written in UTF-8, like the slaves encode them.
+			resultWriter = new PrintWriter(this.job + ".txt", StandardCharsets.UTF_8);
 			
-//			We just have to write the pairs to the output file.
-			for (String key : sortedKeys) {
-				resultWriter.write(key + " " + this.keysAndCounts.get(key) + "\n");
+//			Writes the most frequent remaining key, and moves its list to the next key.
+			int printedKeys = 0;
+			while (printedKeys < this.topK && !positions.isEmpty()) {
+				int[] position = positions.poll();
+				List<RecordBatch> batches = reducersBatches.get(position[0]);
+				RecordBatch batch = batches.get(position[1]);
+				resultWriter.write(batch.getKey(position[2]) + " " + batch.getCount(position[2]) 
+						+ "\n");
+				printedKeys++;
+				
+				position[2]++;
+				if (position[2] == batch.size()) {
+					position[1]++;
+					position[2] = 0;
+				}
+				if (position[1] < batches.size()) {
+					positions.add(position);
+				}
 			}
 			
 //		Catches errors that can occur while writing to the file.
@@ -557,6 +964,13 @@ public class Master {
 			resultWriter.close();
 		}
 		
+		this.printAssemblingEnd(startTime);
+	}
+	
+	
+//	Prints the elapsed time of the assembling phase and of the whole program.
+	private void printAssemblingEnd(long startTime) {
+		
 //		Prints the elapsed time.
 		System.out.println("Assembling phase duration = " + (
 				System.currentTimeMillis() - startTime) + " ms.");
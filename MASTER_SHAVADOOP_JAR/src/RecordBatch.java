@@ -0,0 +1,47 @@
+
+// Class of a batch of outputs sent by a slave: couples (key, count) for the UMx -> RMx mode. The
+// counts are kept as longs, so the Master doesn't parse them.
+public class RecordBatch {
+
+
+//	Fields.
+	private String[] keys; // Keys of the records.
+	private long[] counts; // Counts of the records, or null if the slave doesn't send counts.
+	private int size; // Number of records.
+
+
+//	Constructor.
+	public RecordBatch(int capacity, boolean hasCounts) {
+
+		this.keys = new String[capacity];
+		this.counts = hasCounts ? new long[capacity] : null;
+		this.size = 0;
+	}
+
+
+//	Getters.
+	public int size() {
+		return this.size;
+	}
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+	public String getKey(int index) {
+		return this.keys[index];
+	}
+	public long getCount(int index) {
+		return this.counts[index];
+	}
+
+
+//	Adds a record to the batch, which must not be full.
+	public void add(String key, long count) {
+
+		this.keys[this.size] = key;
+		if (this.counts != null) {
+			this.counts[this.size] = count;
+		}
+		this.size++;
+	}
+
+}
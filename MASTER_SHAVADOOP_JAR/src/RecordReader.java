@@ -0,0 +1,178 @@
+
+// Modules to import.
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+
+// Class that decodes the binary outputs sent by the RecordWriter of a slave, frame by frame, into
+// RecordBatches.
+public class RecordReader {
+
+
+//	Constants of the protocol, shared with the RecordWriter of the slave. The stream starts with
+//	the magic number and the flags, followed by frames: the type of the frame, the length of its
+//	payload as a varint and the payload. The payload of a RECORDS frame is the number of records
+//	followed by the records. A record is the length of its key in UTF-8 as a varint followed by
+//	the bytes of the key, then its count encoded by the ValueCodec of the job if the stream has
+//	counts. The payload of a STATS frame is the number of values followed by the values as
+//	varints. The payload of a PROGRESS frame is the work done and the total work of the job, as
+//	varints.
+	public static final int MAGIC_NUMBER = 0x53485652;
+	public static final int FLAG_COUNTS = 2;
+	public static final int FRAME_RECORDS = 1;
+	public static final int FRAME_END = 2;
+	public static final int FRAME_STATS = 3;
+	public static final int FRAME_PROGRESS = 4;
+
+
+//	Fields.
+	private DataInputStream input; // Stream from the slave (SSH or daemon connection).
+	private int flags; // Flags of the stream, read from its header.
+	private ValueCodec valueCodec; // Encoding of the counts of the records.
+	private long[] value; // Count of the current record, the only value of the array.
+	private byte[] payload; // Payload of the current frame.
+	private int position; // Position of the next byte to decode in the payload.
+	private long[] stats; // Statistics of the job sent by the slave, or null if none were sent.
+	private volatile double progress; // Last progress sent by the slave, between 0 and 1.
+	private volatile long lastFrameTime; // Time at which the last frame was received, in ms.
+
+
+//	Constructor. Reads the header of the stream and throws an error if it is not a stream of
+//	records. The counts are read with the codec of the job of the slave.
+	public RecordReader(InputStream input, ValueCodec valueCodec) throws IOException {
+
+		this.input = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+		this.valueCodec = valueCodec;
+		this.value = new long[1];
+		if (this.input.readInt() != MAGIC_NUMBER) {
+			throw new IOException("Wrong magic number in the outputs of the slave");
+		}
+		this.flags = this.input.readUnsignedByte();
+		this.payload = new byte[1 << 16];
+		this.lastFrameTime = System.currentTimeMillis();
+	}
+
+
+//	Getters.
+	public long[] getStats() {
+		return this.stats;
+	}
+	public double getProgress() {
+		return this.progress;
+	}
+	public long getLastFrameTime() {
+		return this.lastFrameTime;
+	}
+
+
+//	Reads the next frames and returns the records of the first RECORDS frame, or null if it is the
+//	end signal. The STATS and PROGRESS frames are kept for getStats() and getProgress(). Throws an
+//	EOFException if the slave has closed the stream without sending the end signal.
+	public RecordBatch readBatch() throws IOException {
+
+		int frameType = this.readFrame();
+		while (frameType == FRAME_STATS || frameType == FRAME_PROGRESS) {
+			if (frameType == FRAME_STATS) {
+				this.stats = new long[this.readPayloadVarint()];
+				for (int i = 0; i < this.stats.length; i++) {
+					this.stats[i] = this.readPayloadVarlong();
+				}
+			} else {
+				long work = this.readPayloadVarlong();
+				long totalWork = this.readPayloadVarlong();
+				this.progress = totalWork > 0 ? Math.min(1.0, (double) work / totalWork) : 0;
+			}
+			frameType = this.readFrame();
+		}
+
+		if (frameType == FRAME_END) {
+			return null;
+		} else if (frameType != FRAME_RECORDS) {
+			throw new IOException("Unknown frame type " + frameType);
+		}
+
+//		Decodes the records directly from the payload.
+		boolean hasCounts = (this.flags & FLAG_COUNTS) != 0;
+		int numberOfRecords = this.readPayloadVarint();
+		RecordBatch batch = new RecordBatch(numberOfRecords, hasCounts);
+		for (int i = 0; i < numberOfRecords; i++) {
+			int keyLength = this.readPayloadVarint();
+			String key = new String(this.payload, this.position, keyLength, StandardCharsets.UTF_8);
+			this.position = this.position + keyLength;
+			batch.add(key, hasCounts ? this.readPayloadValue() : 0);
+		}
+		return batch;
+	}
+
+
+//	Reads the next frame into the payload buffer and returns its type.
+	private int readFrame() throws IOException {
+
+		int frameType = this.input.read();
+		if (frameType < 0) {
+			throw new EOFException("Outputs of the slave ended without the end signal");
+		}
+		int payloadLength = this.readStreamVarint();
+		if (this.payload.length < payloadLength) {
+			this.payload = new byte[payloadLength];
+		}
+		this.input.readFully(this.payload, 0, payloadLength);
+		this.position = 0;
+		this.lastFrameTime = System.currentTimeMillis();
+		return frameType;
+	}
+
+
+//	Reads an unsigned varint from the stream (length of a frame).
+	private int readStreamVarint() throws IOException {
+
+		int value = 0;
+		for (int shift = 0; shift < 35; shift = shift + 7) {
+			int b = this.input.readUnsignedByte();
+			value = value | (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in the outputs of the slave");
+	}
+
+//	Reads an unsigned varint from the payload of the current frame.
+	private int readPayloadVarint() {
+
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = this.payload[this.position++];
+			value = value | (b & 0x7F) << shift;
+			shift = shift + 7;
+		} while (b < 0);
+		return value;
+	}
+
+//	Reads a count from the payload of the current frame.
+	private long readPayloadValue() {
+		this.position = this.valueCodec.read(this.payload, this.position, this.value, 0);
+		return this.value[0];
+	}
+
+//	Reads an unsigned varint of a long from the payload of the current frame.
+	private long readPayloadVarlong() {
+
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = this.payload[this.position++];
+			value = value | (long) (b & 0x7F) << shift;
+			shift = shift + 7;
+		} while (b < 0);
+		return value;
+	}
+
+}
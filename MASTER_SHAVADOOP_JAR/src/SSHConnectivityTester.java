@@ -5,31 +5,48 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 
 
-// Class that tests the SSH connection with a given adress.
+// Class that tests the SSH connection with a given adress, and measures what the Master needs to
+// rank the slaves: the round-trip time of the connection, the number of cores and the free memory
+// of the machine.
 public class SSHConnectivityTester implements Runnable {
 
-	
+
+//	Command run on the slave. The first line proves that the connection works, the next ones are
+//	the number of cores and the available memory in kB (empty if the machine has no /proc).
+	private static final String PROBE_COMMAND = "echo connected; nproc; "
+			+ "awk '/MemAvailable/ {print $2}' /proc/meminfo";
+
+//	Memory that a core of the slave needs to be fully used by a job, in bytes.
+	private static final long MEMORY_PER_CORE = 256L << 20;
+
+
 //	Fields.
 	private String adress; // Adress of the machine on which we test the SSH connection.
-	private Thread thread; // Thread that will be associated to this instance.
 	private ProcessBuilder processBuilder; // For launching the SSH process.
 	private Process process; // SSH process.
 	private BufferedReader bufferedProcessReader; // For reading the output of the process.
 	private boolean connectionSuccess; // State of the SSH connection.
-	
-	
+	private boolean isCancelled; // True if the Master stopped waiting for the answer.
+	private long latency; // Time until the first line of the answer, in ms.
+	private int numberOfCores; // Number of cores of the machine, 1 if unknown.
+	private long freeMemory; // Available memory of the machine in bytes, -1 if unknown.
+
+
 //	Constructor.
 	public SSHConnectivityTester(String adress) {
-		
+
 		this.adress = adress;
-		this.thread = null;
 		this.processBuilder = new ProcessBuilder();
 		this.process = null;
 		this.bufferedProcessReader = null;
 		this.connectionSuccess = false;
+		this.isCancelled = false;
+		this.latency = -1;
+		this.numberOfCores = 1;
+		this.freeMemory = -1;
 	}
 
-	
+
 //	Getters and setters.
 	public String getAdress() {
 		return this.adress;
@@ -37,51 +54,107 @@ public class SSHConnectivityTester implements Runnable {
 	public boolean isConnectionSuccess() {
 		return this.connectionSuccess;
 	}
-	public Thread getThread() {
-		return this.thread;
+	public long getLatency() {
+		return this.latency;
+	}
+	public int getNumberOfCores() {
+		return this.numberOfCores;
+	}
+	public long getFreeMemory() {
+		return this.freeMemory;
 	}
-	public void setThread(Thread thread) {
-		this.thread = thread;
+
+
+//	Returns the number of cores that a job can use on the machine: its cores, unless it has too
+//	little free memory for all of them.
+	public int getUsableCores() {
+
+		if (this.freeMemory < 0) {
+			return this.numberOfCores;
+		}
+		return (int) Math.max(1, Math.min(this.numberOfCores, this.freeMemory / MEMORY_PER_CORE));
+	}
+
+
+//	Kills the SSH process if it is still running, when the Master stops waiting for the answer.
+	public synchronized void cancel() {
+
+		this.isCancelled = true;
+		if (this.process != null) {
+			this.process.destroyForcibly();
+		}
 	}
 
 
-//	Method executed in a new thread when Thread.start() is called by Master.
+//	Method executed in a task of a TaskScope, when it is forked by the Master.
 	@Override
 	public void run() {
-		
+
 //		Try-catch bloc to prevent errors while trying to read the process response.
 		try {
-			
-//			Tries an SSH connection with the adress.
-			this.process = this.processBuilder.command("ssh", this.adress).start();
-			
+
+//			Tries an SSH connection with the adress, unless the Master has already given up.
+			long startTime = System.currentTimeMillis();
+			synchronized (this) {
+				if (this.isCancelled) {
+					return;
+				}
+				this.process = this.processBuilder.command("ssh", this.adress, PROBE_COMMAND)
+						.start();
+			}
+
 //			Object that will read the response of the process launched.
 			this.bufferedProcessReader = new BufferedReader(new InputStreamReader(
 					this.process.getInputStream()));
-			
+
 //			If there is a response, the connection is successful, so we set the boolean to true.
 			if (this.bufferedProcessReader.readLine() != null) {
+				this.latency = System.currentTimeMillis() - startTime;
+				this.readResources();
 				this.connectionSuccess = true;
 //			Otherwise, the connection failed, so we set the boolean to false.
 			} else {
-				this.connectionSuccess = false;			
+				this.connectionSuccess = false;
 			}
-			
-//		Catches eventual errors while trying to read the stream.
+
+//		Catches eventual errors while trying to read the stream. They are expected if the probe
+//		was cancelled.
 		} catch (IOException e) {
-			e.printStackTrace();
-			
+			if (!this.isCancelled) {
+				e.printStackTrace();
+			}
+
 //		Closes the stream to prevent memory leak.
 		} finally {
 			try {
-				this.bufferedProcessReader.close();
+				if (this.bufferedProcessReader != null) {
+					this.bufferedProcessReader.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
-		
-		
+
 	}
 
-	
+
+//	Reads the number of cores and the free memory sent after the first line. A line which is
+//	missing or not a number leaves the default value.
+	private void readResources() throws IOException {
+
+		try {
+			String line = this.bufferedProcessReader.readLine();
+			if (line != null && !line.trim().isEmpty()) {
+				this.numberOfCores = Math.max(1, Integer.parseInt(line.trim()));
+			}
+			line = this.bufferedProcessReader.readLine();
+			if (line != null && !line.trim().isEmpty()) {
+				this.freeMemory = Long.parseLong(line.trim()) * 1024;
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Unexpected resources sent by " + this.adress);
+		}
+	}
+
+
 }
@@ -0,0 +1,131 @@
+
+// Modules to import.
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+// Class that launches each job in a new JVM on the slave, via SSH.
+public class SSHTransport implements SlaveTransport {
+
+
+//	Fields.
+	private String slaveJarDirectory; // Directory that contains Slave.jar.
+
+
+//	Constructor.
+	public SSHTransport(String slaveJarDirectory) {
+		this.slaveJarDirectory = slaveJarDirectory;
+	}
+
+
+//	Quotes an argument for the shell of the slave, which runs the command given to SSH: it is put
+//	between single quotes, and each single quote inside it ends the quoting, is escaped, and starts
+//	it again.
+	public static String quote(String argument) {
+		return "'" + argument.replace("'", "'\\''") + "'";
+	}
+
+
+//	Sends new process to slave via SSH. The shell of the slave first writes its process id on the
+//	output, then is replaced by the JVM of the job, which keeps this id.
+	@Override
+	public Task start(final String adress, String[] arguments) throws IOException {
+
+		StringBuilder command = new StringBuilder("echo $$; exec java -jar " 
+				+ quote(this.slaveJarDirectory + "Slave.jar"));
+		for (String argument : arguments) {
+			command.append(" " + quote(argument));
+		}
+		final Process process = new ProcessBuilder("ssh", adress, command.toString()).start();
+		final ProcessIdReader outputStream = new ProcessIdReader(process.getInputStream());
+
+		return new Task() {
+			@Override
+			public InputStream getOutputStream() {
+				return outputStream;
+			}
+//			The messages are sent on the standard input of the job, through SSH.
+			@Override
+			public OutputStream getControlStream() {
+				return process.getOutputStream();
+			}
+			@Override
+			public int waitFor() throws InterruptedException {
+				return process.waitFor();
+			}
+//			If the process id hasn't been read yet, the job will see that its input is closed.
+			@Override
+			public void cancel() {
+				process.destroy();
+				long processId = outputStream.getProcessId();
+				if (processId > 0) {
+					kill(adress, processId);
+				}
+			}
+		};
+	}
+
+
+//	Kills the JVM of a job on the slave. Killing the SSH client is not enough, as the command keeps
+//	running on the slave without a terminal.
+	private static void kill(String adress, long processId) {
+
+		try {
+			new ProcessBuilder("ssh", adress, "kill " + processId).start().waitFor();
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+//	Class of the output of a job, which reads the line of the process id before the outputs.
+	private static class ProcessIdReader extends FilterInputStream {
+
+		private volatile long processId; // Process id of the job, or -1 if it isn't read yet.
+		private boolean isProcessIdRead; // True once the line of the process id is read.
+
+		private ProcessIdReader(InputStream input) {
+			super(input);
+			this.processId = -1;
+			this.isProcessIdRead = false;
+		}
+
+		private long getProcessId() {
+			return this.processId;
+		}
+
+		@Override
+		public int read() throws IOException {
+			this.readProcessId();
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			this.readProcessId();
+			return super.read(bytes, offset, length);
+		}
+
+//		Reads the digits of the process id until the end of the line, on the first read.
+		private void readProcessId() throws IOException {
+
+			if (this.isProcessIdRead) {
+				return;
+			}
+			this.isProcessIdRead = true;
+			long processId = 0;
+			int b = this.in.read();
+			while (b >= '0' && b <= '9') {
+				processId = processId * 10 + b - '0';
+				b = this.in.read();
+			}
+			if (b != '\n') {
+				throw new IOException("No process id sent by the slave");
+			}
+			this.processId = processId;
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+
+// Modules to import.
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+// Interface of the ways of sending a job (map or reduce) to a slave: launching Slave.jar via SSH,
+// or sending it to a Slave daemon already running on the machine.
+public interface SlaveTransport {
+
+
+//	Starts a job on the slave with the given arguments of Slave.jar, and returns the running task.
+	public Task start(String adress, String[] arguments) throws IOException;
+
+
+//	Interface of a job running on a slave.
+	public interface Task {
+
+//		Returns the stream of the outputs sent by the slave.
+		public InputStream getOutputStream();
+
+//		Returns the stream of the messages sent to the slave while the job is running.
+		public OutputStream getControlStream();
+
+//		Waits for the end of the job, and returns its exit code (0 if it has succeeded).
+		public int waitFor() throws InterruptedException;
+
+//		Stops the job before its end, when its outputs are no longer needed.
+		public void cancel();
+	}
+
+}
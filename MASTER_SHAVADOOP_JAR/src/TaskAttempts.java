@@ -0,0 +1,385 @@
+
+// Modules to import.
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+// Class that schedules the jobs of a phase (map or reduce) on the slaves and follows their
+// attempts. The jobs wait in a queue, and each slave takes the next one as soon as it has a free
+// slot, so a fast slave runs more jobs than a slow one. A backup attempt of a job is sent to a
+// slave with a free slot when the job is much slower than the other jobs. The first attempt of a
+// job to end is committed, and the other attempts of the job are cancelled. When an attempt fails,
+// or its slave isn't heard of for too long, the slave is considered as lost and the job is put
+// back in the queue.
+public class TaskAttempts {
+
+
+//	A job is slow if it has been running for this factor times the median duration of the ended
+//	jobs, and at least for the minimum time.
+	private static final double SLOWNESS_FACTOR = 1.5;
+	private static final long MIN_BACKUP_ELAPSED_TIME = 1000;
+
+//	Maximum number of attempts of a job, retries and backup included. A job may have at most one
+//	backup attempt.
+	private static final int MAX_ATTEMPTS = 4;
+
+//	Time without any frame from a slave after which its attempt is considered as lost, in ms. The
+//	slaves send a heartbeat every second while they are working.
+	private static final long HEARTBEAT_TIMEOUT = 10000;
+
+//	Time between two checks of the slow and lost jobs, in ms.
+	public static final long CHECK_PERIOD = 200;
+
+
+//	Fields.
+	private List<JobLauncher> jobs; // Jobs of the phase, not sent to any slave.
+	private List<String> adresses; // Adresses of the slaves which run the jobs.
+	private int slotsPerAdress; // Number of jobs that a slave runs at the same time.
+	private TaskScope scope; // Scope in which the attempts run.
+	private boolean isSpeculative; // False if no backup attempt should be sent.
+	private Deque<Integer> pendingJobs; // Numbers of the jobs waiting for a free slot, in order.
+	private List<List<JobLauncher>> jobsAttempts; // Attempts of each job, the first one first.
+	private boolean[] hasBackup; // True for the jobs which already got a backup attempt.
+	private Map<JobLauncher, Integer> attemptsJobs; // Number of the job of each attempt.
+	private JobLauncher[] committedAttempts; // Committed attempt of each job, null if none yet.
+	private int numberOfCommittedJobs; // Number of jobs with a committed attempt.
+	private long lastCheckTime; // Time of the last check of the slow and lost jobs.
+	private boolean isSlotFreed; // True if a slot may have been freed since the last schedule.
+	private Set<String> failedAdresses; // Slaves lost, shared by the phases.
+
+
+//	Constructor. The given JobLaunchers describe the jobs, each attempt of a job is created from
+//	its JobLauncher for a slave. No job is sent before the first call to checkAttempts(). The lost
+//	slaves are added to the given set, so that no more jobs are sent to them.
+	public TaskAttempts(List<JobLauncher> jobs, List<String> adresses, int slotsPerAdress,
+			TaskScope scope, boolean isSpeculative, Set<String> failedAdresses) {
+
+		this.jobs = jobs;
+		this.adresses = adresses;
+		this.slotsPerAdress = slotsPerAdress;
+		this.scope = scope;
+		this.isSpeculative = isSpeculative;
+		this.pendingJobs = new ArrayDeque<Integer>();
+		this.jobsAttempts = new ArrayList<List<JobLauncher>>();
+		this.attemptsJobs = new HashMap<JobLauncher, Integer>();
+		for (int job = 0; job < jobs.size(); job++) {
+			this.pendingJobs.add(job);
+			this.jobsAttempts.add(new ArrayList<JobLauncher>());
+		}
+		this.hasBackup = new boolean[jobs.size()];
+		this.committedAttempts = new JobLauncher[jobs.size()];
+		this.numberOfCommittedJobs = 0;
+		this.lastCheckTime = 0;
+		this.isSlotFreed = true;
+		this.failedAdresses = failedAdresses;
+	}
+
+
+//	Getters.
+	public int getNumberOfJobs() {
+		return this.jobsAttempts.size();
+	}
+	public int getNumberOfCommittedJobs() {
+		return this.numberOfCommittedJobs;
+	}
+
+
+//	Returns the attempts which are still running, of every job.
+	public List<JobLauncher> getRunningAttempts() {
+
+		List<JobLauncher> runningAttempts = new ArrayList<JobLauncher>();
+		for (List<JobLauncher> attempts : this.jobsAttempts) {
+			for (JobLauncher attempt : attempts) {
+				if (!attempt.isJobEnded() && !attempt.isCancelled()) {
+					runningAttempts.add(attempt);
+				}
+			}
+		}
+		return runningAttempts;
+	}
+
+
+//	Returns the number of the job of an attempt, or -1 if the attempt isn't one of this phase
+//	(a late event of a cancelled attempt of the previous phase).
+	public int getJob(JobLauncher attempt) {
+		Integer job = this.attemptsJobs.get(attempt);
+		return job != null ? job : -1;
+	}
+
+
+//	Called when an attempt has sent its end signal. If it is the first attempt of its job to end,
+//	its outputs are committed, the other attempts of the job are cancelled and true is returned.
+//	Otherwise its outputs are discarded and false is returned.
+	public boolean commit(JobLauncher attempt) throws IOException {
+
+		attempt.setJobEnded(true);
+		this.isSlotFreed = true;
+		int job = this.getJob(attempt);
+		if (this.committedAttempts[job] != null || attempt.isCancelled()) {
+			attempt.discardOutputs();
+			return false;
+		}
+
+		attempt.commitOutputs();
+		this.committedAttempts[job] = attempt;
+		this.numberOfCommittedJobs++;
+		for (JobLauncher otherAttempt : this.jobsAttempts.get(job)) {
+			if (otherAttempt != attempt) {
+				this.cancel(otherAttempt);
+			}
+		}
+		if (this.hasBackup[job] && attempt != this.jobsAttempts.get(job).get(0)) {
+			System.out.println("-> backup attempt on " + attempt.getAdress() + " ended first");
+		}
+		return true;
+	}
+
+
+//	Deletes the outputs of every attempt that was not committed. Called at the end of the phase.
+//	A cancelled attempt may still be running on a daemon, it then deletes the outputs that it
+//	writes after this call itself.
+	public void discardUncommittedOutputs() {
+
+		for (int job = 0; job < this.jobsAttempts.size(); job++) {
+			for (JobLauncher attempt : this.jobsAttempts.get(job)) {
+				if (attempt != this.committedAttempts[job]) {
+					attempt.discardOutputs();
+				}
+			}
+		}
+	}
+
+
+//	Called when an attempt has failed (its slave exited with an error or the connection was lost).
+//	The slave is considered as lost and the outputs of the attempt are discarded. If no other
+//	attempt of the job is still running, the job is put back at the head of the queue, so that it
+//	is sent to the next free slot. Returns false if the job has failed too many times.
+	public boolean retry(JobLauncher failedAttempt) {
+
+		failedAttempt.setJobEnded(true);
+		failedAttempt.discardOutputs();
+		this.isSlotFreed = true;
+		this.failedAdresses.add(failedAttempt.getAdress());
+		int job = this.getJob(failedAttempt);
+		if (this.committedAttempts[job] != null || this.getRunningAttempt(job) != null) {
+			return true;
+		}
+
+		int numberOfAttempts = this.jobsAttempts.get(job).size();
+		if (numberOfAttempts >= MAX_ATTEMPTS) {
+			System.err.println("Error : job " + job + " failed " + numberOfAttempts + " times");
+			return false;
+		}
+		this.pendingJobs.addFirst(job);
+		System.out.println("-> job " + job + " of " + failedAttempt.getAdress()
+				+ " put back in the queue");
+		return true;
+	}
+
+
+//	Sends the pending jobs to the slots freed since the last call, then checks the running
+//	attempts, at most once per check period: an attempt whose slave hasn't sent anything for too
+//	long is cancelled and handled like a failed one, and the slow jobs get a backup attempt.
+//	Returns false if a lost job can't be sent again, because it has failed too many times or no
+//	slave is left.
+	public boolean checkAttempts() {
+
+		if (this.isSlotFreed && !this.schedule()) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (now - this.lastCheckTime < CHECK_PERIOD) {
+			return true;
+		}
+		this.lastCheckTime = now;
+
+		for (int job = 0; job < this.jobsAttempts.size(); job++) {
+			List<JobLauncher> attempts = this.jobsAttempts.get(job);
+			for (int i = 0; i < attempts.size() && this.committedAttempts[job] == null; i++) {
+				JobLauncher attempt = attempts.get(i);
+				long silentTime = now - attempt.getLastHeardTime();
+				if (attempt.isJobEnded() || attempt.isCancelled()
+						|| silentTime < HEARTBEAT_TIMEOUT) {
+					continue;
+				}
+				System.out.println("-> no news from " + attempt.getAdress() + " for " + silentTime
+						+ " ms");
+				this.cancel(attempt);
+				if (!this.retry(attempt)) {
+					return false;
+				}
+			}
+		}
+		if (!this.schedule()) {
+			return false;
+		}
+
+		if (this.isSpeculative && this.numberOfCommittedJobs * 2 >= this.jobsAttempts.size()) {
+			this.launchBackups();
+		}
+		return true;
+	}
+
+
+//	Sends the pending jobs, in order, to the slaves which have a free slot. The slaves take one
+//	job each in turn, so that the jobs are spread when several slots are free. Returns false if
+//	jobs are pending but every slave is lost.
+	private boolean schedule() {
+
+		this.isSlotFreed = false;
+		Map<String, Integer> freeSlots = this.getFreeSlots();
+		if (freeSlots.isEmpty() && !this.pendingJobs.isEmpty()) {
+			System.err.println("Error : no slave left for the " + this.pendingJobs.size()
+					+ " pending jobs");
+			return false;
+		}
+
+		boolean isJobSent = true;
+		while (isJobSent && !this.pendingJobs.isEmpty()) {
+			isJobSent = false;
+			for (Map.Entry<String, Integer> adressFreeSlots : freeSlots.entrySet()) {
+				if (adressFreeSlots.getValue() > 0 && !this.pendingJobs.isEmpty()) {
+					this.launchAttempt(this.pendingJobs.poll(), adressFreeSlots.getKey());
+					adressFreeSlots.setValue(adressFreeSlots.getValue() - 1);
+					isJobSent = true;
+				}
+			}
+		}
+		return true;
+	}
+
+
+//	Looks for slow jobs and sends a backup attempt of each one to a free slot, once no job is
+//	pending. A job is slow if its attempt has been running for much longer than the median
+//	duration of the ended jobs, and if the attempt is not about to end: a backup, which should
+//	take about the median duration, has to be able to end first.
+	private void launchBackups() {
+
+		if (!this.pendingJobs.isEmpty()) {
+			return;
+		}
+		long medianDuration = this.getMedianDuration();
+		Map<String, Integer> freeSlots = this.getFreeSlots();
+		for (int job = 0; job < this.jobsAttempts.size(); job++) {
+			List<JobLauncher> attempts = this.jobsAttempts.get(job);
+			JobLauncher attempt = this.getRunningAttempt(job);
+			if (this.committedAttempts[job] != null || this.hasBackup[job] || attempt == null
+					|| attempts.size() >= MAX_ATTEMPTS) {
+				continue;
+			}
+
+//			The remaining time of the attempt is estimated from its progress. Without progress,
+//			it is unknown, so we only rely on the elapsed time.
+			long elapsedTime = attempt.getElapsedTime();
+			double progress = attempt.getProgress();
+			double remainingTime = progress > 0
+					? elapsedTime * (1 - progress) / progress : Double.MAX_VALUE;
+			if (elapsedTime < Math.max(MIN_BACKUP_ELAPSED_TIME, SLOWNESS_FACTOR * medianDuration)
+					|| remainingTime <= medianDuration) {
+				continue;
+			}
+
+//			The backup is sent to a free slot of a slave which is not running this job.
+			String backupAdress = null;
+			for (Map.Entry<String, Integer> adressFreeSlots : freeSlots.entrySet()) {
+				if (adressFreeSlots.getValue() > 0
+						&& !adressFreeSlots.getKey().equals(attempt.getAdress())) {
+					backupAdress = adressFreeSlots.getKey();
+					adressFreeSlots.setValue(adressFreeSlots.getValue() - 1);
+					break;
+				}
+			}
+			if (backupAdress == null) {
+				continue;
+			}
+
+			this.launchAttempt(job, backupAdress);
+			this.hasBackup[job] = true;
+			System.out.println("-> job of " + attempt.getAdress() + " is slow (" + elapsedTime
+					+ " ms, " + Math.round(progress * 100) + "%, median " + medianDuration
+					+ " ms), backup attempt sent to " + backupAdress);
+		}
+	}
+
+
+//	Sends a new attempt of a job to a slave.
+	private void launchAttempt(int job, String adress) {
+
+		List<JobLauncher> attempts = this.jobsAttempts.get(job);
+		JobLauncher attempt = this.jobs.get(job).createAttempt(adress, attempts.size());
+		attempts.add(attempt);
+		this.attemptsJobs.put(attempt, job);
+		this.scope.fork(attempt);
+	}
+
+
+//	Returns the attempt of a job which is still running, or null if there is none. When there are
+//	several (an attempt and its backup), the first one is returned.
+	private JobLauncher getRunningAttempt(int job) {
+
+		for (JobLauncher attempt : this.jobsAttempts.get(job)) {
+			if (!attempt.isJobEnded() && !attempt.isCancelled()) {
+				return attempt;
+			}
+		}
+		return null;
+	}
+
+
+//	Cancels an attempt, and interrupts its thread in case it is waiting for the Master.
+	private void cancel(JobLauncher attempt) {
+
+		if (!attempt.isJobEnded() && !attempt.isCancelled()) {
+			attempt.cancel();
+			this.scope.cancel(attempt);
+			this.isSlotFreed = true;
+			System.out.println("-> cancelled attempt on " + attempt.getAdress());
+		}
+	}
+
+
+//	Returns the median duration of the committed attempts, in ms.
+	private long getMedianDuration() {
+
+		long[] durations = new long[this.numberOfCommittedJobs];
+		int i = 0;
+		for (JobLauncher committedAttempt : this.committedAttempts) {
+			if (committedAttempt != null) {
+				durations[i++] = committedAttempt.getDuration();
+			}
+		}
+		Arrays.sort(durations);
+		return durations.length > 0 ? durations[durations.length / 2] : 0;
+	}
+
+
+//	Returns the number of free slots of each slave which is not lost, in the order of the
+//	adresses. A slot is taken by each running attempt of this phase.
+	private Map<String, Integer> getFreeSlots() {
+
+		Map<String, Integer> freeSlots = new LinkedHashMap<String, Integer>();
+		for (String adress : this.adresses) {
+			if (!this.failedAdresses.contains(adress)) {
+				freeSlots.put(adress, this.slotsPerAdress);
+			}
+		}
+		for (List<JobLauncher> attempts : this.jobsAttempts) {
+			for (JobLauncher attempt : attempts) {
+				Integer adressFreeSlots = freeSlots.get(attempt.getAdress());
+				if (adressFreeSlots != null && !attempt.isJobEnded() && !attempt.isCancelled()) {
+					freeSlots.put(attempt.getAdress(), adressFreeSlots - 1);
+				}
+			}
+		}
+		return freeSlots;
+	}
+
+}
@@ -0,0 +1,152 @@
+
+// Modules to import.
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Class that runs a group of tasks which mostly wait for a slave (reading the outputs of an SSH
+// process or a daemon connection), and lets the Master join or cancel them all at once. The tasks
+// run on virtual threads when the Java runtime has them (Java 21 and later), so that a waiting
+// task costs almost nothing. Otherwise they run on daemon threads with a small stack.
+public class TaskScope {
+
+
+//	Stack size of the threads when virtual threads are not available. The tasks only read streams
+//	and call small methods, they don't need the default stack.
+	private static final long THREAD_STACK_SIZE = 256 * 1024;
+
+
+//	Fields.
+	private ExecutorService executor; // Runs the tasks.
+	private boolean isVirtual; // True if the tasks run on virtual threads.
+	private Map<Runnable, Future<?>> futures; // Results of the tasks forked, in order.
+
+
+//	Constructor.
+	public TaskScope(String name) {
+
+		this.futures = new LinkedHashMap<Runnable, Future<?>>();
+
+//		The method for virtual threads is looked up by reflection, so that the Master still
+//		compiles and runs on older versions of Java.
+		try {
+			this.executor = (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+			this.isVirtual = true;
+		} catch (ReflectiveOperationException e) {
+			this.executor = Executors.newCachedThreadPool(new SmallStackThreadFactory(name));
+			this.isVirtual = false;
+		}
+	}
+
+
+//	Getters.
+	public boolean isVirtual() {
+		return this.isVirtual;
+	}
+
+
+//	Starts a task in the scope.
+	public Future<?> fork(Runnable task) {
+
+		Future<?> future = this.executor.submit(task);
+		this.futures.put(task, future);
+		return future;
+	}
+
+
+//	Waits for every task of the scope to end, and releases the threads. An error thrown by a task
+//	is printed, like it would have been by its own thread.
+	public void join() throws InterruptedException {
+
+		try {
+			for (Future<?> future : this.futures.values()) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				} catch (CancellationException e) {
+//					The task was cancelled, nothing to wait for.
+				}
+			}
+		} finally {
+			this.executor.shutdown();
+		}
+	}
+
+
+//	Waits for every task of the scope to end, but no longer than the given timeout in ms. Returns
+//	true if they have all ended, in which case the threads are released. Otherwise the caller
+//	still has to cancel the scope.
+	public boolean join(long timeout) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + timeout;
+		for (Future<?> future : this.futures.values()) {
+			try {
+				future.get(Math.max(0, deadline - System.currentTimeMillis()), 
+						TimeUnit.MILLISECONDS);
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+			} catch (CancellationException e) {
+//				The task was cancelled, nothing to wait for.
+			} catch (TimeoutException e) {
+				return false;
+			}
+		}
+		this.executor.shutdown();
+		return true;
+	}
+
+
+//	Interrupts the tasks still running and releases the threads, without waiting for the tasks.
+	public void cancel() {
+
+		for (Future<?> future : this.futures.values()) {
+			future.cancel(true);
+		}
+		this.executor.shutdownNow();
+	}
+
+
+//	Interrupts a single task of the scope, if it is still running. The other tasks go on, and
+//	join() doesn't wait for this one.
+	public void cancel(Runnable task) {
+
+		Future<?> future = this.futures.get(task);
+		if (future != null) {
+			future.cancel(true);
+		}
+	}
+
+
+//	Class that creates the named daemon threads with a small stack. Daemon threads don't prevent
+//	the Master from exiting if a slave never answers.
+	private static class SmallStackThreadFactory implements ThreadFactory {
+
+		private String name; // Prefix of the names of the threads.
+		private AtomicInteger numberOfThreads; // For numbering the threads.
+
+		private SmallStackThreadFactory(String name) {
+			this.name = name;
+			this.numberOfThreads = new AtomicInteger();
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(null, task,
+					this.name + "-" + this.numberOfThreads.incrementAndGet(), THREAD_STACK_SIZE);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,341 @@
+
+// Modules to import.
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import benchmarks.Workload;
+
+
+// Workloads of the benchmarks of the slave, one for each hot path of a map or a reduce job. They
+// are in the default package, like the classes that they use. The texts are processed by chunks
+// cut at spaces, like MapLauncher does.
+public class SlaveWorkloads {
+
+
+//	Number of bytes of a chunk, as read by a MapLauncher.
+	private static final int CHUNK_SIZE = 1 << 22;
+
+//	Number of partitions of the UMx files written by a map.
+	private static final int NUMBER_OF_PARTITIONS = 8;
+
+//	Number of mappers whose UMx files are counted by a reduce.
+	private static final int NUMBER_OF_MAPPERS = 4;
+
+
+//	Tokenizing of the text: folding of the characters, cutting at spaces and removal of the
+//	common words.
+	public static class Tokenize implements Workload {
+
+		private byte[] corpus;
+		private Tokenizer tokenizer;
+
+		@Override
+		public void setUp(byte[] corpus) {
+			this.corpus = corpus;
+			this.tokenizer = new Tokenizer();
+		}
+
+		@Override
+		public Object run() {
+			int numberOfWords = 0;
+			for (int start = 0; start < this.corpus.length; ) {
+				int end = chunkEnd(this.corpus, start);
+				numberOfWords = numberOfWords + this.tokenizer.tokenize(this.corpus, start,
+						end - start).size();
+				start = end;
+			}
+			return numberOfWords;
+		}
+
+		@Override
+		public void tearDown() {
+		}
+	}
+
+
+//	Map of the text by the word count job: tokenizing, aggregation of the counts in a
+//	CombiningBuffer, then sort, encoding and writing of the UMx files.
+	public static class Map implements Workload {
+
+		private byte[] corpus;
+		private Job job;
+		private Mapper mapper;
+		private File[] outputFiles;
+		private FileChannel[] outputChannels;
+
+		@Override
+		public void setUp(byte[] corpus) throws IOException {
+			this.corpus = corpus;
+			this.job = Job.forName("wordcount");
+			this.mapper = this.job.createMapper();
+			this.outputFiles = createTemporaryFiles("map", NUMBER_OF_PARTITIONS);
+			this.outputChannels = openChannels(this.outputFiles);
+		}
+
+		@Override
+		public Object run() throws IOException {
+			for (FileChannel outputChannel : this.outputChannels) {
+				outputChannel.truncate(0);
+			}
+			CombiningBuffer combiningBuffer = new CombiningBuffer(this.outputChannels, 1,
+					this.job, ValueCodec.VARLONG);
+			map(this.mapper, this.corpus, 0, this.corpus.length, combiningBuffer);
+			combiningBuffer.close();
+			return combiningBuffer.getWrittenRecords();
+		}
+
+		@Override
+		public void tearDown() throws IOException {
+			closeChannels(this.outputChannels);
+			deleteFiles(this.outputFiles);
+		}
+	}
+
+
+//	Counting of the words of the text in a CountMap, from their UTF-8 bytes.
+	public static class Count implements Workload {
+
+		private byte[] keyBytes;
+		private int[] keyOffsets;
+
+		@Override
+		public void setUp(byte[] corpus) {
+
+			List<String> words = new ArrayList<String>();
+			Tokenizer tokenizer = new Tokenizer();
+			for (int start = 0; start < corpus.length; ) {
+				int end = chunkEnd(corpus, start);
+				words.addAll(tokenizer.tokenize(corpus, start, end - start));
+				start = end;
+			}
+
+//			The words are only made of ASCII letters, one byte per character.
+			this.keyOffsets = new int[words.size() + 1];
+			for (int i = 0; i < words.size(); i++) {
+				this.keyOffsets[i + 1] = this.keyOffsets[i] + words.get(i).length();
+			}
+			this.keyBytes = new byte[this.keyOffsets[words.size()]];
+			for (int i = 0; i < words.size(); i++) {
+				String word = words.get(i);
+				for (int j = 0; j < word.length(); j++) {
+					this.keyBytes[this.keyOffsets[i] + j] = (byte) word.charAt(j);
+				}
+			}
+		}
+
+		@Override
+		public Object run() {
+			CountMap keysCounts = new CountMap(Job.SUM);
+			for (int i = 0; i + 1 < this.keyOffsets.length; i++) {
+				keysCounts.add(this.keyBytes, this.keyOffsets[i],
+						this.keyOffsets[i + 1] - this.keyOffsets[i], 1);
+			}
+			return keysCounts;
+		}
+
+		@Override
+		public void tearDown() {
+		}
+	}
+
+
+//	Reduce of a partition: decoding of the UMx files of several mappers and aggregation of their
+//	counts. The text is split between the mappers, which write a single partition.
+	public static class Reduce implements Workload {
+
+		private File[] inputFiles;
+
+		@Override
+		public void setUp(byte[] corpus) throws IOException {
+
+			this.inputFiles = createTemporaryFiles("reduce", NUMBER_OF_MAPPERS);
+			Job job = Job.forName("wordcount");
+			int start = 0;
+			for (int i = 0; i < NUMBER_OF_MAPPERS; i++) {
+				int end = i == NUMBER_OF_MAPPERS - 1 ? corpus.length
+						: nextSpace(corpus, (int) ((long) corpus.length * (i + 1)
+								/ NUMBER_OF_MAPPERS));
+				FileChannel[] outputChannels = openChannels(new File[] {this.inputFiles[i]});
+				try {
+					CombiningBuffer combiningBuffer = new CombiningBuffer(outputChannels, 1, job,
+							ValueCodec.VARLONG);
+					map(job.createMapper(), corpus, start, end, combiningBuffer);
+					combiningBuffer.close();
+				} finally {
+					closeChannels(outputChannels);
+				}
+				start = end;
+			}
+		}
+
+		@Override
+		public Object run() throws Exception {
+			int[] committedMappers = new int[NUMBER_OF_MAPPERS];
+			for (int i = 0; i < NUMBER_OF_MAPPERS; i++) {
+				committedMappers[i] = i;
+			}
+			ReduceLauncher reduceLauncher = new ReduceLauncher(this.inputFiles, committedMappers,
+					Job.SUM, ValueCodec.VARLONG);
+			reduceLauncher.setNumberOfCommittedMappers(NUMBER_OF_MAPPERS);
+			reduceLauncher.run();
+			if (reduceLauncher.getFailure() != null) {
+				throw new Exception(reduceLauncher.getFailure());
+			}
+			return reduceLauncher.getKeysCounts();
+		}
+
+		@Override
+		public void tearDown() {
+			deleteFiles(this.inputFiles);
+		}
+	}
+
+
+//	Sort of the couples of a UMx file by key, and their encoding in blocks (without compression,
+//	so that only the sort and the front coding are measured).
+	public static class SortByKey implements Workload {
+
+		private CountMap keysCounts;
+
+		@Override
+		public void setUp(byte[] corpus) throws Exception {
+			Count count = new Count();
+			count.setUp(corpus);
+			this.keysCounts = (CountMap) count.run();
+		}
+
+		@Override
+		public Object run() throws IOException {
+			BlockWriter blockWriter = new BlockWriter(OutputStream.nullOutputStream(), true, false,
+					ValueCodec.VARLONG);
+			for (int index = 0; index < this.keysCounts.size(); index++) {
+				blockWriter.write(this.keysCounts.getKeyBytes(),
+						this.keysCounts.getKeyOffset(index), this.keysCounts.getKeyLength(index),
+						this.keysCounts.getCount(index));
+			}
+			blockWriter.close();
+			return blockWriter.getWrittenBytes();
+		}
+
+		@Override
+		public void tearDown() {
+		}
+	}
+
+
+//	Sort of the couples of a reducer by count, and the writing of its compressed RMx file.
+	public static class SortByCount implements Workload {
+
+		private List<CountMap> partitionsKeysCounts;
+		private File outputFile;
+
+		@Override
+		public void setUp(byte[] corpus) throws Exception {
+			Count count = new Count();
+			count.setUp(corpus);
+			this.partitionsKeysCounts = Collections.singletonList((CountMap) count.run());
+			this.outputFile = createTemporaryFiles("sort", 1)[0];
+		}
+
+		@Override
+		public Object run() throws IOException {
+			new RunWriter(ValueCodec.VARLONG).write(this.partitionsKeysCounts, this.outputFile);
+			return this.outputFile.length();
+		}
+
+		@Override
+		public void tearDown() {
+			this.outputFile.delete();
+		}
+	}
+
+
+//	Maps a part of a text by chunks, and adds the couples to a CombiningBuffer.
+	private static void map(Mapper mapper, byte[] text, int start, int end,
+			final CombiningBuffer combiningBuffer) throws IOException {
+
+		Collector collector = new Collector() {
+			@Override
+			public void collect(byte[] bytes, int offset, int length, long value)
+					throws IOException {
+				combiningBuffer.add(bytes, offset, length, value);
+			}
+			@Override
+			public void collect(String key, long value) throws IOException {
+				combiningBuffer.add(key, value);
+			}
+		};
+		while (start < end) {
+			int chunkEnd = Math.min(chunkEnd(text, start), end);
+			mapper.map(text, start, chunkEnd - start, collector);
+			start = chunkEnd;
+		}
+	}
+
+
+//	Returns the end of the chunk which starts at the given position: after the last space of the
+//	chunk, or the end of the text.
+	private static int chunkEnd(byte[] text, int start) {
+
+		if (text.length - start <= CHUNK_SIZE) {
+			return text.length;
+		}
+		int end = start + CHUNK_SIZE;
+		while (end > start + 1 && text[end - 1] != 32) {
+			end--;
+		}
+		return end;
+	}
+
+
+//	Returns the position after the first space at or after the given position.
+	private static int nextSpace(byte[] text, int position) {
+
+		while (position < text.length && text[position] != 32) {
+			position++;
+		}
+		return Math.min(position + 1, text.length);
+	}
+
+
+//	Creates empty files in the temporary directory, deleted when the JVM exits.
+	private static File[] createTemporaryFiles(String prefix, int numberOfFiles)
+			throws IOException {
+
+		File[] files = new File[numberOfFiles];
+		for (int i = 0; i < numberOfFiles; i++) {
+			files[i] = File.createTempFile("shavadoop-" + prefix + "-", ".bin");
+			files[i].deleteOnExit();
+		}
+		return files;
+	}
+
+	private static FileChannel[] openChannels(File[] files) throws IOException {
+
+		FileChannel[] channels = new FileChannel[files.length];
+		for (int i = 0; i < files.length; i++) {
+			channels[i] = FileChannel.open(files[i].toPath(), StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		return channels;
+	}
+
+	private static void closeChannels(FileChannel[] channels) throws IOException {
+		for (FileChannel channel : channels) {
+			channel.close();
+		}
+	}
+
+	private static void deleteFiles(File[] files) {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+}
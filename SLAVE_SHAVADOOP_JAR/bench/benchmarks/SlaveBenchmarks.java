@@ -0,0 +1,38 @@
+package benchmarks;
+
+// Modules to import.
+import org.openjdk.jmh.annotations.Param;
+
+
+// JMH benchmarks of the hot paths of the slave, the workloads of SlaveWorkloads. The corpora, the
+// measure and the options are those of WorkloadBenchmarks, shared with the master.
+// The benchmarks are compiled with the sources of the slave and those shared with the master, with
+// JMH and its annotation processor on the classpath (jmh-core, jmh-generator-annprocess,
+// jopt-simple, commons-math3):
+//   javac -cp <JMH jars> -d classes ../src/*.java ../../COMMON_SHAVADOOP/src/*.java *.java \
+//       benchmarks/*.java ../../COMMON_SHAVADOOP/bench/benchmarks/*.java
+//   java -cp <JMH jars>:classes benchmarks.SlaveBenchmarks [JMH options]
+public class SlaveBenchmarks extends WorkloadBenchmarks {
+
+
+//	File of the results, unless another one is given with -rff.
+	private static final String DEFAULT_RESULT_FILE = "slave-benchmarks.json";
+
+
+//	Parameter of the benchmark: the workload, by its name in SlaveWorkloads.
+	@Param({"Tokenize", "Map", "Count", "Reduce", "SortByKey", "SortByCount"})
+	public String workloadName;
+
+
+//	Entry point.
+	public static void main(String[] args) throws Exception {
+		runBenchmarks(SlaveBenchmarks.class, DEFAULT_RESULT_FILE, args);
+	}
+
+
+	@Override
+	protected String getWorkloadClassName() {
+		return "SlaveWorkloads$" + this.workloadName;
+	}
+
+}
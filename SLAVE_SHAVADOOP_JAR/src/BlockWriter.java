@@ -0,0 +1,324 @@
+
+// Modules to import.
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+
+// Class that writes couples (key, count) to a UMx or RMx file in the binary block format, read by
+// BlockReader. The couples are gathered in blocks of about BLOCK_SIZE bytes. The keys of a block
+// form its dictionary, front-coded (each key only stores what differs from the previous one), and
+// are followed by the counts encoded by the ValueCodec of the job, in the order of the keys. The
+// block is then compressed with Deflate, unless it doesn't get smaller or the file isn't
+// compressed.
+//
+// Layout of a block: magic (int), codec (byte, 0 stored or 1 deflated), number of couples, length
+// of the keys part, raw length and stored length (varints), then the stored bytes. Raw bytes: for
+// each key its shared prefix length, suffix length and suffix bytes (varints and bytes), then for
+// each key its count (ValueCodec). The magic number and the codecs are in BlockFormat, shared with
+// the master.
+public class BlockWriter implements CoupleWriter {
+
+
+//	Number of raw bytes of keys after which a block is written.
+	private static final int BLOCK_SIZE = 1 << 16;
+
+//	Number of first bytes of the keys, and of bits of the indexes, packed in a long for sorting.
+	private static final int PREFIX_BYTES = 5;
+	private static final int INDEX_BITS = 23;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+
+//	Fields.
+	private OutputStream output; // Stream of the file, or of a segment of the file.
+	private boolean isSortedByKey; // True if the couples of a block are sorted by key.
+	private ValueCodec valueCodec; // Encoding of the counts.
+	private byte[] keyBytes; // UTF-8 bytes of the keys of the current block.
+	private int[] offsets; // Start of each key of the current block, and end of the last.
+	private long[] counts; // Count of each key of the current block.
+	private int size; // Number of couples in the current block.
+	private int[] order; // Indexes of the couples of the current block, in the order of encoding.
+	private long[] sortedIndexes; // Indexes of the couples with the first bytes of their keys.
+	private byte[] rawBytes; // Encoded couples of the current block, before compression.
+	private int rawLength; // Number of encoded bytes in rawBytes.
+	private byte[] storedBytes; // Compressed couples of the current block.
+	private Deflater deflater; // Compressor, reused for every block, null if not compressed.
+	private boolean isDeflaterOwned; // True if the compressor was created by this BlockWriter.
+	private long writtenBytes; // Number of bytes written to the output.
+
+
+//	Constructor. If the couples are sorted by key, they are sorted inside each block before being
+//	written, so that consecutive keys share longer prefixes. Otherwise their order is kept (the
+//	runs of the reducers are sorted by count). Blocks which aren't compressed are cheaper to write
+//	and to read, for files that don't leave the machine.
+	public BlockWriter(OutputStream output, boolean isSortedByKey, boolean isCompressed, 
+			ValueCodec valueCodec) {
+		this(output, isSortedByKey, isCompressed ? new Deflater(Deflater.BEST_SPEED) : null, 
+				valueCodec);
+		this.isDeflaterOwned = isCompressed;
+	}
+
+//	Constructor with a compressor shared by several BlockWriters of the same thread, which only
+//	compress one block at a time. The compressor is not released by close().
+	public BlockWriter(OutputStream output, boolean isSortedByKey, Deflater deflater, 
+			ValueCodec valueCodec) {
+
+		this.output = output;
+		this.isSortedByKey = isSortedByKey;
+		this.valueCodec = valueCodec;
+		this.keyBytes = new byte[1 << 12];
+		this.offsets = new int[257];
+		this.counts = new long[256];
+		this.size = 0;
+		this.order = new int[256];
+		this.sortedIndexes = new long[256];
+		this.rawBytes = new byte[1 << 12];
+		this.storedBytes = new byte[1 << 12];
+		this.deflater = deflater;
+		this.isDeflaterOwned = false;
+		this.writtenBytes = 0;
+	}
+
+
+//	Getters.
+	public long getWrittenBytes() {
+		return this.writtenBytes;
+	}
+
+
+//	Adds a couple whose key is given as UTF-8 bytes, at the given offset and of the given length.
+//	The block is written once it is full.
+	@Override
+	public void write(byte[] bytes, int offset, int length, long count) throws IOException {
+
+		if (this.size == this.counts.length) {
+			this.counts = Arrays.copyOf(this.counts, this.counts.length * 2);
+			this.offsets = Arrays.copyOf(this.offsets, this.counts.length + 1);
+		}
+		int end = this.offsets[this.size] + length;
+		if (end > this.keyBytes.length) {
+			this.keyBytes = Arrays.copyOf(this.keyBytes, Math.max(this.keyBytes.length * 2, end));
+		}
+		System.arraycopy(bytes, offset, this.keyBytes, this.offsets[this.size], length);
+		this.counts[this.size] = count;
+		this.size++;
+		this.offsets[this.size] = end;
+
+		if (end >= BLOCK_SIZE || this.size > INDEX_MASK) {
+			this.flushBlock();
+		}
+	}
+
+//	Adds a couple whose key is given as a String.
+	public void write(String key, long count) throws IOException {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		this.write(bytes, 0, bytes.length, count);
+	}
+
+
+//	Writes the current block, even if it isn't full, so that the output can be written out.
+	public void flushBlock() throws IOException {
+
+		if (this.size == 0) {
+			return;
+		}
+
+//		The order in which the couples are encoded.
+		if (this.order.length < this.size) {
+			this.order = new int[this.counts.length];
+			this.sortedIndexes = new long[this.counts.length];
+		}
+		if (this.isSortedByKey) {
+			this.sortOrder();
+		} else {
+			for (int i = 0; i < this.size; i++) {
+				this.order[i] = i;
+			}
+		}
+
+//		Encodes the keys, front-coded, then the counts. The length of the keys part is written in
+//		the header, so that the reader can read a key and its count at the same time.
+		this.rawLength = 0;
+		int previous = -1;
+		for (int i = 0; i < this.size; i++) {
+			int index = this.order[i];
+			int shared = previous < 0 ? 0 : this.sharedPrefixLength(previous, index);
+			int suffixLength = this.offsets[index + 1] - this.offsets[index] - shared;
+			this.writeRawVarint(shared);
+			this.writeRawVarint(suffixLength);
+			this.ensureRawCapacity(suffixLength);
+			System.arraycopy(this.keyBytes, this.offsets[index] + shared, this.rawBytes,
+					this.rawLength, suffixLength);
+			this.rawLength = this.rawLength + suffixLength;
+			previous = index;
+		}
+		int keysLength = this.rawLength;
+		this.ensureRawCapacity(this.size * ValueCodec.MAX_LENGTH);
+		for (int i = 0; i < this.size; i++) {
+			this.rawLength = this.valueCodec.write(this.counts[this.order[i]], this.rawBytes, 
+					this.rawLength);
+		}
+
+//		Compresses the block, and keeps it stored if it doesn't get smaller.
+		byte codec = BlockFormat.CODEC_STORED;
+		byte[] stored = this.rawBytes;
+		int storedLength = this.rawLength;
+		if (this.deflater != null) {
+			this.deflater.reset();
+			this.deflater.setInput(this.rawBytes, 0, this.rawLength);
+			this.deflater.finish();
+			if (this.storedBytes.length < this.rawLength) {
+				this.storedBytes = new byte[this.rawLength];
+			}
+			int deflatedLength = 0;
+			while (!this.deflater.finished() && deflatedLength < this.rawLength) {
+				deflatedLength = deflatedLength + this.deflater.deflate(this.storedBytes,
+						deflatedLength, this.rawLength - deflatedLength);
+			}
+			if (this.deflater.finished() && deflatedLength < this.rawLength) {
+				codec = BlockFormat.CODEC_DEFLATE;
+				stored = this.storedBytes;
+				storedLength = deflatedLength;
+			}
+		}
+
+		byte[] blockHeader = new byte[25];
+		blockHeader[0] = (byte) (BlockFormat.BLOCK_MAGIC >>> 24);
+		blockHeader[1] = (byte) (BlockFormat.BLOCK_MAGIC >>> 16);
+		blockHeader[2] = (byte) (BlockFormat.BLOCK_MAGIC >>> 8);
+		blockHeader[3] = (byte) BlockFormat.BLOCK_MAGIC;
+		blockHeader[4] = codec;
+		int blockHeaderLength = putVarint(blockHeader, 5, this.size);
+		blockHeaderLength = putVarint(blockHeader, blockHeaderLength, keysLength);
+		blockHeaderLength = putVarint(blockHeader, blockHeaderLength, this.rawLength);
+		blockHeaderLength = putVarint(blockHeader, blockHeaderLength, storedLength);
+		this.output.write(blockHeader, 0, blockHeaderLength);
+		this.output.write(stored, 0, storedLength);
+		this.writtenBytes = this.writtenBytes + blockHeaderLength + storedLength;
+
+		this.size = 0;
+	}
+
+
+//	Writes the last block and closes the output.
+	public void close() throws IOException {
+
+		try {
+			this.flushBlock();
+		} finally {
+			if (this.isDeflaterOwned) {
+				this.deflater.end();
+			}
+			this.output.close();
+		}
+	}
+
+
+//	Sorts the order of the couples by key. Each couple is represented by a long, the first bytes of
+//	its key in the high bits and its index in the low bits, so that we can use the sort of
+//	primitives instead of comparing objects. Then the couples whose keys start with the same bytes
+//	are sorted the same way by their next bytes, until their keys differ.
+	private void sortOrder() {
+
+		for (int index = 0; index < this.size; index++) {
+			this.sortedIndexes[index] = index;
+		}
+		this.sortByBytes(0, this.size, 0);
+		for (int i = 0; i < this.size; i++) {
+			this.order[i] = (int) (this.sortedIndexes[i] & INDEX_MASK);
+		}
+	}
+
+
+//	Sorts the couples between the given positions of sortedIndexes (end excluded), whose keys are
+//	the same until the given depth, by the PREFIX_BYTES bytes of their keys after this depth. The
+//	bytes after the end of a key are zeros. If no key of the couples has bytes after this depth,
+//	they are sorted by length, the shorter key first.
+	private void sortByBytes(int from, int to, int depth) {
+
+		long[] sortedIndexes = this.sortedIndexes;
+		boolean hasNextBytes = false;
+		for (int i = from; i < to; i++) {
+			int index = (int) (sortedIndexes[i] & INDEX_MASK);
+			int start = this.offsets[index] + depth;
+			int length = this.offsets[index + 1] - start;
+			long prefix = 0;
+			for (int j = 0; j < PREFIX_BYTES; j++) {
+				prefix = prefix << 8 | (j < length ? this.keyBytes[start + j] & 0xFF : 0);
+			}
+			hasNextBytes = hasNextBytes || length > 0;
+			sortedIndexes[i] = prefix << INDEX_BITS | index;
+		}
+		if (!hasNextBytes) {
+			for (int i = from; i < to; i++) {
+				int index = (int) (sortedIndexes[i] & INDEX_MASK);
+				long length = this.offsets[index + 1] - this.offsets[index];
+				sortedIndexes[i] = length << INDEX_BITS | index;
+			}
+			Arrays.sort(sortedIndexes, from, to);
+			return;
+		}
+		Arrays.sort(sortedIndexes, from, to);
+
+//		Each run of couples whose keys have the same bytes until the next depth is sorted again.
+//		The prefix of the run is kept apart, the sort of the run replaces it in sortedIndexes.
+		int runStart = from;
+		long runPrefix = sortedIndexes[from] >>> INDEX_BITS;
+		for (int i = from + 1; i <= to; i++) {
+			if (i == to || sortedIndexes[i] >>> INDEX_BITS != runPrefix) {
+				if (i - runStart > 1) {
+					this.sortByBytes(runStart, i, depth + PREFIX_BYTES);
+				}
+				if (i < to) {
+					runStart = i;
+					runPrefix = sortedIndexes[i] >>> INDEX_BITS;
+				}
+			}
+		}
+	}
+
+
+//	Returns the number of first bytes that two keys of the block have in common.
+	private int sharedPrefixLength(int index1, int index2) {
+
+		int start1 = this.offsets[index1];
+		int start2 = this.offsets[index2];
+		int length = Math.min(this.offsets[index1 + 1] - start1, this.offsets[index2 + 1] - start2);
+		int shared = 0;
+		while (shared < length && this.keyBytes[start1 + shared] == this.keyBytes[start2 + shared]) {
+			shared++;
+		}
+		return shared;
+	}
+
+
+//	Appends a varint to the raw bytes of the block.
+	private void writeRawVarint(int value) {
+		this.ensureRawCapacity(5);
+		this.rawLength = putVarint(this.rawBytes, this.rawLength, value);
+	}
+
+//	Grows the raw bytes of the block so that they can take the given number of bytes more.
+	private void ensureRawCapacity(int length) {
+		if (this.rawLength + length > this.rawBytes.length) {
+			this.rawBytes = Arrays.copyOf(this.rawBytes,
+					Math.max(this.rawBytes.length * 2, this.rawLength + length));
+		}
+	}
+
+
+//	Writes a non negative int as a varint (7 bits per byte, lowest first) at the given position,
+//	and returns the position after it.
+	private static int putVarint(byte[] bytes, int position, int value) {
+
+		while ((value & ~0x7F) != 0) {
+			bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+			value = value >>> 7;
+		}
+		bytes[position++] = (byte) value;
+		return position;
+	}
+
+}
@@ -0,0 +1,20 @@
+
+// Modules to import.
+import java.io.IOException;
+
+
+// Interface of the receiver of the couples (key, value) given by a Mapper. The keys are written
+// as UTF-8 bytes and the values as varints in the UMx and RMx files, so a key is given as a slice
+// of a byte array that the Mapper can reuse as soon as the call returns, and a value as a
+// primitive long. The values must not be negative: the reducers sort their outputs by value.
+public interface Collector {
+
+
+//	Collects a couple whose key is given as UTF-8 bytes, at the given offset and of the given
+//	length.
+	public void collect(byte[] bytes, int offset, int length, long value) throws IOException;
+
+//	Collects a couple whose key is given as a String. It is encoded in a buffer of the Collector.
+	public void collect(String key, long value) throws IOException;
+
+}
@@ -0,0 +1,12 @@
+
+// Interface of the function that aggregates two values of the same key in a mapper, before they
+// are written to the UMx files, so that each key is written once per flush instead of once per
+// couple. The values of a key are aggregated two by two in any order, so the function must be
+// associative and commutative.
+public interface Combiner {
+
+
+//	Returns the aggregate of two values of the same key.
+	public long combine(long value, long otherValue);
+
+}
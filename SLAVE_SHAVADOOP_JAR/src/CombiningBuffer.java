@@ -0,0 +1,181 @@
+
+// Modules to import.
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+
+// Class that aggregates the counts of a MapLauncher before they are written to the UMx files, so
+// that each word is written once with its count instead of once per occurence. The counts are the
+// values of the couples given by the Mapper of the job, aggregated by its Combiner, and the words
+// are partitioned between the UMx files, one for each reducer, by its Partitioner. Each MapLauncher
+// has its own CombiningBuffer, so no lock is taken per word: the couples are encoded in compressed
+// blocks by a BlockWriter of the thread, one for each partition, and appended to the UMx file by
+// whole segments of blocks.
+public class CombiningBuffer {
+
+
+//	Rough heap cost of one word of the CountMap (its bytes, and its entries in the hash table and
+//	in the arrays indexed by word, which are not full after they grow).
+	private static final long BYTES_PER_KEY = 64;
+
+//	Number of encoded bytes of a partition after which they are appended to its UMx file.
+	private static final int SEGMENT_SIZE = 1 << 20;
+
+
+//	Fields.
+	private CountMap keysCounts; // Partial counts of the words not yet written.
+	private byte[] keyBuffer; // For encoding the words given as Strings.
+	private Partitioner partitioner; // Partitioning of the words between the UMx files.
+	private int maxKeys; // Number of different words kept in memory before a partial flush.
+	private FileChannel[] outputChannels; // Output files, one per partition, shared by threads.
+	private SegmentOutputStream[] partitionsSegments; // Encoded blocks not yet written.
+	private BlockWriter[] partitionsWriters; // For encoding the couples of each partition.
+	private Deflater deflater; // Compressor shared by the BlockWriters, used by this thread only.
+	private long writtenRecords; // Number of (word, count) couples written to the output files.
+	private long[] partitionsRecords; // Number of couples written to each output file.
+
+
+//	Constructor. The memory bound is a quarter of the maximum heap of the slave, shared by the
+//	given number of CombiningBuffers (one for each MapLauncher). The counts are encoded with the
+//	codec of the values of the job.
+	public CombiningBuffer(FileChannel[] outputChannels, int numberOfBuffers, Job job, 
+			ValueCodec valueCodec) {
+
+		this.keysCounts = new CountMap(job.getCombiner());
+		this.keyBuffer = new byte[64];
+		this.partitioner = job.getPartitioner();
+		this.maxKeys = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+				Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_KEY / numberOfBuffers));
+		this.outputChannels = outputChannels;
+		this.partitionsSegments = new SegmentOutputStream[outputChannels.length];
+		this.partitionsWriters = new BlockWriter[outputChannels.length];
+		this.deflater = new Deflater(Deflater.BEST_SPEED);
+		for (int partition = 0; partition < outputChannels.length; partition++) {
+			this.partitionsSegments[partition] = new SegmentOutputStream();
+			this.partitionsWriters[partition] = new BlockWriter(
+					this.partitionsSegments[partition], true, this.deflater, valueCodec);
+		}
+		this.writtenRecords = 0;
+		this.partitionsRecords = new long[outputChannels.length];
+	}
+
+
+//	Getters.
+	public long getWrittenRecords() {
+		return this.writtenRecords;
+	}
+	public long[] getPartitionsRecords() {
+		return this.partitionsRecords.clone();
+	}
+
+
+//	Adds a count to a word given as UTF-8 bytes. If the buffer reaches its memory bound, we write
+//	its content to the output files and start again with an empty buffer.
+	public void add(byte[] bytes, int offset, int length, long count) throws IOException {
+
+		boolean isNew = this.keysCounts.add(bytes, offset, length, count);
+		if (isNew && this.keysCounts.size() >= this.maxKeys) {
+			this.flush();
+		}
+	}
+
+//	Adds a count to a word given as a String. An ASCII word is encoded in the buffer of the
+//	CombiningBuffer, so no byte array is created per word.
+	public void add(String key, long count) throws IOException {
+
+		int length = key.length();
+		if (length > this.keyBuffer.length) {
+			this.keyBuffer = new byte[Math.max(length, this.keyBuffer.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			char c = key.charAt(i);
+			if (c >= 0x80) {
+				byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+				this.add(bytes, 0, bytes.length, count);
+				return;
+			}
+			this.keyBuffer[i] = (byte) c;
+		}
+		this.add(this.keyBuffer, 0, length, count);
+	}
+
+
+//	Writes every (word, count) couple of the buffer to the output file of its partition and
+//	empties the buffer. A word can therefore appear several times in an output file, if partial
+//	flushes happened or if several threads found it, the reducers aggregate the counts anyway.
+	public void flush() throws IOException {
+
+		byte[] keyBytes = this.keysCounts.getKeyBytes();
+		for (int index = 0; index < this.keysCounts.size(); index++) {
+			int keyOffset = this.keysCounts.getKeyOffset(index);
+			int keyLength = this.keysCounts.getKeyLength(index);
+			int partition = this.partitioner.partition(keyBytes, keyOffset, keyLength, 
+					this.outputChannels.length);
+			this.partitionsWriters[partition].write(keyBytes, keyOffset, keyLength, 
+					this.keysCounts.getCount(index));
+			this.partitionsRecords[partition]++;
+			if (this.partitionsSegments[partition].size() >= SEGMENT_SIZE) {
+				this.writeSegment(partition);
+			}
+		}
+		this.writtenRecords = this.writtenRecords + this.keysCounts.size();
+		this.keysCounts.clear();
+
+//		The last block of each partition is ended, and the remaining blocks are written as a last,
+//		smaller segment.
+		for (int partition = 0; partition < this.outputChannels.length; partition++) {
+			this.partitionsWriters[partition].flushBlock();
+			this.writeSegment(partition);
+		}
+	}
+
+
+//	Writes the remaining couples and releases the compressor. The buffer can't be used anymore.
+	public void close() throws IOException {
+
+		try {
+			this.flush();
+		} finally {
+			this.deflater.end();
+		}
+	}
+
+
+//	Appends the encoded blocks of a partition to its output file. The channel is shared by the
+//	threads: its lock is only taken once per segment, so that the blocks are not interleaved with
+//	the blocks of another thread.
+	private void writeSegment(int partition) throws IOException {
+
+		SegmentOutputStream segment = this.partitionsSegments[partition];
+		if (segment.size() == 0) {
+			return;
+		}
+		ByteBuffer bytes = segment.toByteBuffer();
+		FileChannel outputChannel = this.outputChannels[partition];
+		synchronized (outputChannel) {
+			while (bytes.hasRemaining()) {
+				outputChannel.write(bytes);
+			}
+		}
+		segment.reset();
+	}
+
+
+//	Stream of the encoded blocks of a partition, whose bytes can be written to the channel
+//	without being copied.
+	private static class SegmentOutputStream extends ByteArrayOutputStream {
+
+		private SegmentOutputStream() {
+			super(1 << 16);
+		}
+
+		private ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(this.buf, 0, this.count);
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+
+// Modules to import.
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+// Class that reads the messages sent by the master on the input of a job while it is running, in
+// a thread of its own: for a reduce job, the number of each mapper whose UMx files the master has
+// committed. The reducer only counts the files of these mappers, so a file left by a previous run
+// or by an attempt which was not committed is never counted. The end of the input before the end
+// of the job means that the master has closed the connection: it has cancelled the job, or it is
+// lost. The job must then stop writing its outputs (a job of a daemon keeps running after the
+// master has closed its connection).
+public class ControlReader implements Runnable {
+
+
+//	Fields.
+	private DataInputStream input; // Stream from the master (SSH or daemon connection).
+	private BlockingQueue<Integer> committedMappers; // Mappers committed, not polled yet.
+	private volatile boolean isClosed; // True once the master has closed the input.
+
+
+//	Constructor.
+	public ControlReader(InputStream input) {
+
+		this.input = new DataInputStream(input);
+		this.committedMappers = new LinkedBlockingQueue<Integer>();
+		this.isClosed = false;
+	}
+
+
+//	Getters.
+	public boolean isClosed() {
+		return this.isClosed;
+	}
+
+
+//	Starts the thread which reads the messages. It doesn't keep the JVM alive once the job has
+//	ended.
+	public void start() {
+
+		Thread thread = new Thread(this);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+//	Returns the next mapper committed by the master, or null if there is none yet.
+	public Integer pollCommittedMapper() {
+		return this.committedMappers.poll();
+	}
+
+
+//	Reads the numbers of the mappers, each one an int, until the end of the input.
+	@Override
+	public void run() {
+
+		try {
+			while (true) {
+				this.committedMappers.add(this.input.readInt());
+			}
+		} catch (IOException e) {
+			this.isClosed = true;
+		}
+	}
+
+}
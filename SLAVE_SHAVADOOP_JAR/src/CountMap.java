@@ -0,0 +1,190 @@
+
+// Modules to import.
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+// Class that counts the occurences of words without boxing. The words are not kept as Strings:
+// their UTF-8 bytes are stored one after the other in a single byte array, and found by an open
+// addressing hash table of int. The counts are in a long array, indexed like the words. Adding a
+// word given as a slice of a byte array allocates nothing, unless the arrays have to grow.
+// The counts are the values of the keys of a job: the count added to a word already present is
+// aggregated with its count by the Combiner of the job (a sum for the occurences).
+public class CountMap {
+
+
+//	Initial number of slots of the hash table, always a power of 2.
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+
+//	Fields.
+	private int[] slots; // Hash table, index of the word + 1 in each slot, 0 if the slot is empty.
+	private int[] hashes; // Hash of each word, by index.
+	private int[] offsets; // Start of each word in the byte array, by index, and end of the last.
+	private byte[] keyBytes; // UTF-8 bytes of all the words.
+	private long[] counts; // Count of each word, by index.
+	private int size; // Number of words.
+	private Combiner combiner; // Aggregation of the counts of the same word.
+
+
+//	Constructor.
+	public CountMap(Combiner combiner) {
+
+		this.slots = new int[INITIAL_CAPACITY];
+		this.hashes = new int[INITIAL_CAPACITY / 2];
+		this.offsets = new int[INITIAL_CAPACITY / 2 + 1];
+		this.keyBytes = new byte[INITIAL_CAPACITY * 8];
+		this.counts = new long[INITIAL_CAPACITY / 2];
+		this.size = 0;
+		this.combiner = combiner;
+	}
+
+
+//	Getters. The words are indexed from 0 to size() - 1, in the order in which they were added.
+	public int size() {
+		return this.size;
+	}
+	public String getKey(int index) {
+		return new String(this.keyBytes, this.offsets[index],
+				this.offsets[index + 1] - this.offsets[index], StandardCharsets.UTF_8);
+	}
+	public long getCount(int index) {
+		return this.counts[index];
+	}
+
+//	Getters of the UTF-8 bytes of a word, for writing it without creating a String.
+	public byte[] getKeyBytes() {
+		return this.keyBytes;
+	}
+	public int getKeyOffset(int index) {
+		return this.offsets[index];
+	}
+	public int getKeyLength(int index) {
+		return this.offsets[index + 1] - this.offsets[index];
+	}
+
+
+//	Adds a count to a word given as UTF-8 bytes, at the given offset and of the given length.
+//	Returns true if the word is new.
+	public boolean add(byte[] bytes, int offset, int length, long count) {
+		return this.add(bytes, offset, length, hash(bytes, offset, length), count);
+	}
+
+//	Adds a count to a word given as a String. Returns true if the word is new.
+	public boolean add(String key, long count) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		return this.add(bytes, 0, bytes.length, count);
+	}
+
+
+//	Removes every word. The arrays are kept, so that the CountMap can be filled again without
+//	growing them.
+	public void clear() {
+
+		Arrays.fill(this.slots, 0);
+		this.size = 0;
+	}
+
+
+//	Adds a count to a word whose hash is known, adding the word if it is new. Returns true if the
+//	word is new.
+	private boolean add(byte[] bytes, int offset, int length, int hash, long count) {
+
+		int slot = this.findSlot(bytes, offset, length, hash);
+		if (this.slots[slot] != 0) {
+			int index = this.slots[slot] - 1;
+			this.counts[index] = this.combiner.combine(this.counts[index], count);
+			return false;
+		}
+
+//		A new word: we append its bytes and put it in the empty slot.
+		if (this.size == this.hashes.length) {
+			this.growKeys();
+		}
+		int end = this.offsets[this.size] + length;
+		if (end > this.keyBytes.length) {
+			this.keyBytes = Arrays.copyOf(this.keyBytes, Math.max(this.keyBytes.length * 2, end));
+		}
+		System.arraycopy(bytes, offset, this.keyBytes, this.offsets[this.size], length);
+		this.offsets[this.size + 1] = end;
+		this.hashes[this.size] = hash;
+		this.counts[this.size] = count;
+		this.slots[slot] = this.size + 1;
+		this.size++;
+
+//		We keep the table at most half full, so the probe sequences stay short.
+		if (this.size * 2 > this.slots.length) {
+			this.growSlots();
+		}
+		return true;
+	}
+
+
+//	Returns the slot of a word, or the empty slot where it would be added (linear probing).
+	private int findSlot(byte[] bytes, int offset, int length, int hash) {
+
+		int mask = this.slots.length - 1;
+		int slot = hash & mask;
+		while (this.slots[slot] != 0) {
+			int index = this.slots[slot] - 1;
+			if (this.hashes[index] == hash && this.equalsKey(index, bytes, offset, length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+
+//	Checks if the stored word with the given index has the given bytes.
+	private boolean equalsKey(int index, byte[] bytes, int offset, int length) {
+
+		int start = this.offsets[index];
+		if (this.offsets[index + 1] - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (this.keyBytes[start + i] != bytes[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+//	Doubles the size of the hash table and puts back every word.
+	private void growSlots() {
+
+		this.slots = new int[this.slots.length * 2];
+		int mask = this.slots.length - 1;
+		for (int index = 0; index < this.size; index++) {
+			int slot = this.hashes[index] & mask;
+			while (this.slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			this.slots[slot] = index + 1;
+		}
+	}
+
+
+//	Doubles the number of words that the arrays indexed by word can hold.
+	private void growKeys() {
+
+		int capacity = this.hashes.length * 2;
+		this.hashes = Arrays.copyOf(this.hashes, capacity);
+		this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+		this.counts = Arrays.copyOf(this.counts, capacity);
+	}
+
+
+//	Hash of the bytes of a word (FNV-1a), spread so that the low bits used by the table are good.
+	private static int hash(byte[] bytes, int offset, int length) {
+
+		int hash = 0x811C9DC5;
+		for (int i = offset; i < offset + length; i++) {
+			hash = (hash ^ (bytes[i] & 0xFF)) * 0x01000193;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+}
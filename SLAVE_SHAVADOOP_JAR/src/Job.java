@@ -0,0 +1,73 @@
+
+// Class of a job that the slaves can run: its map function, the aggregation of the values of a
+// key in the mappers and in the reducers, and the partitioning of the keys between the reducers.
+// The job is chosen by name on the command line of the Master, which gives this name to the slaves
+// with the arguments of every map and reduce process. Adding a job is adding a subclass, and its
+// name and record separator to JobCatalog, the rest of the slave (UMx files, shuffle, sort and
+// merge) doesn't depend on it.
+public abstract class Job {
+
+
+//	Aggregation of the values by sum (occurences, totals). A sum which doesn't fit in a long fails
+//	the job, instead of wrapping around to a wrong count.
+	public static final Reducer SUM = new Reducer() {
+		@Override
+		public long combine(long value, long otherValue) {
+			return Math.addExact(value, otherValue);
+		}
+	};
+
+//	Aggregation of the values by maximum.
+	public static final Reducer MAX = new Reducer() {
+		@Override
+		public long combine(long value, long otherValue) {
+			return Math.max(value, otherValue);
+		}
+	};
+
+//	Partitioning of the keys by hash. The hash is computed like String.hashCode() on the bytes of
+//	the key, so an ASCII key gets the same partition as its String did.
+	public static final Partitioner HASH_PARTITIONER = new Partitioner() {
+		@Override
+		public int partition(byte[] bytes, int offset, int length, int numberOfPartitions) {
+			int hash = 0;
+			for (int i = offset; i < offset + length; i++) {
+				hash = 31 * hash + (bytes[i] & 0xFF);
+			}
+			return (hash & Integer.MAX_VALUE) % numberOfPartitions;
+		}
+	};
+
+
+//	Returns the job with the given name of JobCatalog, or null if there is none.
+	public static Job forName(String name) {
+
+		if (name.equals("wordcount")) {
+			return new WordCountJob();
+		} else if (name.equals("sum")) {
+			return new KeyValueJob(SUM);
+		} else if (name.equals("max")) {
+			return new KeyValueJob(MAX);
+		}
+		return null;
+	}
+
+
+//	Creates the Mapper of a map thread.
+	public abstract Mapper createMapper();
+
+//	Returns the aggregation of the values of a key in the reducers.
+	public abstract Reducer getReducer();
+
+//	Returns the aggregation of the values of a key in the mappers. It is the Reducer unless a job
+//	needs another function.
+	public Combiner getCombiner() {
+		return this.getReducer();
+	}
+
+//	Returns the partitioning of the keys, by hash unless a job needs another one.
+	public Partitioner getPartitioner() {
+		return HASH_PARTITIONER;
+	}
+
+}
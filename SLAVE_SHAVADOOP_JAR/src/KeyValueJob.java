@@ -0,0 +1,98 @@
+
+// Modules to import.
+import java.io.IOException;
+
+
+// Job that aggregates the values of the keys of a text file made of lines "<key> <value>", by sum
+// or by maximum. The key is the first field of the line and the value the second one, the fields
+// are separated by spaces or tabs. The value must be an integer, maybe negative, whose absolute
+// value fits in a long: the lines which have no such value (headers, comments) are ignored. The
+// values are sent with the signed codec of JobCatalog. The bytes of the keys are
+// given to the Collector as they are in the buffer, so the mapping allocates nothing.
+public class KeyValueJob extends Job {
+
+
+//	Fields.
+	private Reducer reducer; // Aggregation of the values of a key.
+
+
+//	Constructor.
+	public KeyValueJob(Reducer reducer) {
+		this.reducer = reducer;
+	}
+
+
+	@Override
+	public Mapper createMapper() {
+		return new KeyValueMapper();
+	}
+
+	@Override
+	public Reducer getReducer() {
+		return this.reducer;
+	}
+
+
+//	Mapper of a map thread. It has no state, each line is parsed in the buffer.
+	private static class KeyValueMapper implements Mapper {
+
+		@Override
+		public void map(byte[] buffer, int offset, int length, Collector collector)
+				throws IOException {
+
+			int end = offset + length;
+			int position = offset;
+			while (position < end) {
+
+//				Skips the blanks before the key, then reads the key until the next blank.
+				position = skipBlanks(buffer, position, end);
+				int keyStart = position;
+				while (position < end && !isBlank(buffer[position]) && buffer[position] != '\n') {
+					position++;
+				}
+				int keyEnd = position;
+
+//				Reads the sign and the digits of the value, if there is one. A value too big for a
+//				long is not read to its end, so the line is ignored.
+				position = skipBlanks(buffer, position, end);
+				boolean isNegative = position < end && buffer[position] == '-';
+				if (isNegative) {
+					position++;
+				}
+				int digitsStart = position;
+				long value = 0;
+				while (position < end && buffer[position] >= '0' && buffer[position] <= '9'
+						&& value <= (Long.MAX_VALUE - (buffer[position] - '0')) / 10) {
+					value = value * 10 + buffer[position] - '0';
+					position++;
+				}
+				boolean isValueEnded = position == end || isBlank(buffer[position])
+						|| buffer[position] == '\n';
+				if (keyEnd > keyStart && position > digitsStart && isValueEnded) {
+					collector.collect(buffer, keyStart, keyEnd - keyStart, 
+							isNegative ? -value : value);
+				}
+
+//				Goes to the next line.
+				while (position < end && buffer[position] != '\n') {
+					position++;
+				}
+				position++;
+			}
+		}
+
+//		Returns the position of the first byte which is not a space or a tab.
+		private static int skipBlanks(byte[] buffer, int position, int end) {
+			while (position < end && isBlank(buffer[position])) {
+				position++;
+			}
+			return position;
+		}
+
+//		Checks if a byte is a space, a tab or a carriage return.
+		private static boolean isBlank(byte b) {
+			return b == ' ' || b == '\t' || b == '\r';
+		}
+	}
+
+}
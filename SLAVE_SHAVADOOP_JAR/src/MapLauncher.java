@@ -1,31 +1,51 @@
 
 // Modules to import.
-import java.io.FileInputStream;
-import java.io.PrintWriter;
-import java.text.Normalizer;
-import java.util.HashSet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 
-// Class that executes a partial map job in a new thread on the same machine.
-public class MapLauncher implements Runnable {
+// Class that executes a partial map job in a new thread on the same machine. The records of the
+// input part are given to the Mapper of the job, which gives its couples (key, value) back to the
+// MapLauncher.
+public class MapLauncher implements Runnable, Collector {
+	
+	
+//	Number of bytes of the input part read and processed at once.
+	private static final int CHUNK_SIZE = 1 << 22;
+	
+//	Number of bytes read at once when looking for the end of the last record of the input part.
+	private static final int ADDITIONAL_BYTES_CHUNK = 256;
 	
 	
 //	Fields.
-	private int startPosition; // Start of the input part that this thread will do the mapping on.
-	private int endPosition; // End (excluded) of the input part.
-	private FileInputStream inputReader; // For reading the input file.
-	private PrintWriter outputWriter; // For writing to the output file.
+	private long startPosition; // Start of the input part that this thread will do the mapping on.
+	private long endPosition; // End (excluded) of the input part.
+	private FileChannel inputChannel; // For reading the input file, shared by all the threads.
+	private CombiningBuffer combiningBuffer; // For aggregating the counts of this thread.
+	private RecordWriter recordWriter; // For sending the progress to the master, shared by threads.
+	private ControlReader controlReader; // Closed if the master has cancelled the job.
 	private Thread thread; // Thread associated to this class instance.
+	private Mapper mapper; // Map function of the job, used by this thread only.
+	private byte separator; // Byte that ends the records of the input file, from JobCatalog.
+	private Throwable failure; // Error that stopped the thread, null if it has succeeded.
 
 	
 //	Constructor. We initialize the fields here.
-	public MapLauncher(int startPosition, int endPosition, FileInputStream inputReader, 
-			PrintWriter outputWriter) {
+	public MapLauncher(long startPosition, long endPosition, FileChannel inputChannel, 
+			CombiningBuffer combiningBuffer, RecordWriter recordWriter, 
+			ControlReader controlReader, Mapper mapper, byte separator) {
 		
 		this.startPosition = startPosition;
 		this.endPosition = endPosition;
-		this.inputReader = inputReader;
-		this.outputWriter = outputWriter;
+		this.inputChannel = inputChannel;
+		this.combiningBuffer = combiningBuffer;
+		this.recordWriter = recordWriter;
+		this.controlReader = controlReader;
+		this.mapper = mapper;
+		this.separator = separator;
 	}
 
 	
@@ -36,151 +56,168 @@ public class MapLauncher implements Runnable {
 	public void setThread(Thread thread) {
 		this.thread = thread;
 	}
+	public Throwable getFailure() {
+		return this.failure;
+	}
 
 
-//	Partial map job executed in a new thread when Thread.start() is called by Master.
+//	Partial map job executed in a new thread when Thread.start() is called by Master. The input
+//	part is read and processed by chunks of fixed size, so the memory used by the thread doesn't
+//	depend on the size of the part.
 	@Override
 	public void run() {
 		
 		try {
-		
-//			Buffer to store the read bytes.
-			byte[] buffer = new byte[this.endPosition - Math.max(this.startPosition - 1, 0)];
 			
-//			Text of the input file part.
-			String inputText;
+//			Position of the first byte to read: one byte before the start of the input part to 
+//			check if it is a separator or not, unless the part is at the start of the file.
+			long readPosition = this.startPosition > 0 ? this.startPosition - 1 
+					: this.startPosition;
 			
-//			For additional bytes due to not wanting to cut words.
-			int additionalBytes = 0;
+//			We want to skip the first bytes until we reach a separator (we don't want to cut 
+//			records), they are the end of a record of the previous thread or split.
+			boolean isSkippingRecordEnd = readPosition < this.startPosition;
 			
-//			Now we read our input.
-			synchronized (this.inputReader) {
-				
-//				We first skip the part of the file that doesn't interest us, plus one byte at the
-//				start to check if it is a space or not.
-				this.inputReader.getChannel().position(Math.max(this.startPosition - 1, 0));
-		
-//				Reads the part of the file.
-				this.inputReader.read(buffer);
+//			Buffer to store the read bytes. Its first "length" bytes are the beginning of a record
+//			which was cut by the end of the previous chunk.
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int length = 0;
+			byte lastByte = this.separator;
 			
-//				We want to skip the first bytes until we reach a space (we don't want to cut words).
-				int offset = 0;
-				if (this.startPosition > 0) {
-					while (true) {
-						if (buffer[offset] == 32) {
-							break;
-						}
-						offset++;
+//			Now we read our input by chunks. The reads are positional, so the threads don't need
+//			to share the position of the channel and can read at the same time.
+			while (readPosition < this.endPosition) {
+				
+				int readBytes = this.inputChannel.read(ByteBuffer.wrap(buffer, length, 
+						(int) Math.min(buffer.length - length, this.endPosition - readPosition)),
+						readPosition);
+				if (readBytes <= 0) {
+					break;
+				}
+				readPosition = readPosition + readBytes;
+				lastByte = buffer[length + readBytes - 1];
+				length = length + readBytes;
+				
+//				Skips the end of the record of the previous thread. If there is no separator in
+//				the chunk, the whole chunk is part of this record.
+				int start = 0;
+				if (isSkippingRecordEnd) {
+					while (start < length && buffer[start] != this.separator) {
+						start++;
 					}
+					if (start == length) {
+						length = 0;
+						continue;
+					}
+					isSkippingRecordEnd = false;
 				}
-				inputText = new String(buffer, offset, buffer.length - offset);			
-			
-//				Reads bytes until we reach a space or the end of text (we don't want to cut words).
-				if (buffer[buffer.length - 1] != 32) {
-					while (true) {
-						if (this.inputReader.read(buffer, additionalBytes, 1) == -1) {
-							break;
-						}						
-						additionalBytes++;
-						if (buffer[additionalBytes - 1] == 32) {
-							break;
-						}
+				
+//				The text is complete until the last separator of the chunk, the bytes after it are
+//				carried to the next chunk.
+				int end = length;
+				while (end > start && buffer[end - 1] != this.separator) {
+					end--;
+				}
+				
+//				A record longer than the buffer: we need a bigger buffer to read its end.
+				if (end == start) {
+					System.arraycopy(buffer, start, buffer, 0, length - start);
+					length = length - start;
+					if (length == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
 					}
+					continue;
 				}
+				
+				this.processText(buffer, start, end - start);
+				this.recordWriter.addProgress(end - start);
+				System.arraycopy(buffer, end, buffer, 0, length - end);
+				length = length - end;
 			}
-		
-//			Adds the additional bytes to the text.
-			inputText = inputText.concat(new String(buffer, 0, additionalBytes));
-		
-//			Puts the charachters in lower case.
-			inputText = inputText.toLowerCase();
-	
-//			Removes accentuation (thank you Google for the code).
-			inputText = Normalizer.normalize(inputText, Normalizer.Form.NFD);
-			inputText = inputText.replaceAll("[^\\p{ASCII}]", "");
-		
-//			Removes special characters and replaces them by spaces.
-			inputText = inputText.replaceAll("[^a-z]", " ");
-			
-//			List of common words.
-			String[] commonWords = new String[] {
-					"je", "tu", "il", "elle", "nous", "vous", "ils", "elles", "le", "la", "lui",
-					"les", "nous", "vous", "leur", "eux", "celui", "celle", "celui ci", "celui la",
-					"celle ci", "celle la", "ceci", "cela", "ca", "ceux", "ceux ci", "ceux la",
-					"celles ci", "celles la", "le mien", "le tien", "le sien", "le notre",
-					"le votre", "le leur", "la mienne", "la tienne", "la sienne", "la notre",
-					"la votre", "la leur", "les miens", "les tiens", "les siens", "les notres",
-					"les votres", "les leurs", "les miennes", "les tiennes", "les siennes",
-					"les notres", "les votres", "les leurs", "on", "rien", "aucun", "aucune",
-					"nul", "nulle", "autre", "ni", "tout", "quelqu", "quelque", "certain",
-					"certaine", "certains", "certaines", "plusieurs", "tous", "autres", "qui",
-					"que", "quoi", "dont", "ou", "lequel", "laquelle", "duquel", "auquel",
-					"lesquels", "desquels", "auxquels", "lesquelles", "desquelles", "auxquelles",
-					"apres", "avant", "avec", "chez", "concernant", "contre", "dans", "de",
-					"depuis", "derriere", "des", "devant", "durant", "en", "entre", "envers",
-					"hormis", "hors", "jusque", "malgre", "moyennant", "outre", "par", "parmi",
-					"pendant", "pour", "pres", "sans", "sauf", "selon", "sous", "suivant", "sur",
-					"touchant", "vers", "via", "a bas de", "a cause de", "a cote de", "a defaut de",
-					"afin de", "a force de", "a la merci", "a la faveur de", "a l egard de",
-					"a l encontre de", "a l entour de",	"a l exception de", "a l instar de",
-					"a l insu de", "a meme", "a moins de", "a partir de", "a raison de",
-					"a seule fin de", "a travers", "au dedans de", "au defaut de", "au dehors",
-					"au dessous de", "au dessus de", "au lieu de", "au moyen de", "aupres de",
-					"aux environs de", "au prix de", "autour de", "aux alentours de",
-					"au depens de", "avant de", "d apres", "d avec", "de façon a", "de la part de",
-					"de maniere a", "d entre", "de par", "de peur de", "du cote de", "en bas de",
-					"en deca de", "en dedans de", "en dehors de", "en depit de", "en face de",
-					"en faveur de", "en guise de", "en outre de", "en plus de", "grace a",
-					"hors de", "loin de", "lors de", "par rapport a", "par suite de", "pres de",
-					"proche de", "quant a", "quitte a", "sauf a", "sous couleur de", "vis a vie de",
-					"ainsi", "car", "cependant", "comme", "donc", "si", "et", "quand", "ni", "ou",
-					"or", "puis", "que", "pourtant", "lorsque", "neanmoins", "toutefois", "sinon",
-					"mais", "soit", "enfin", "puisque", "au reste", "au surplus", "ainsi que",
-					"a moins que", "bien que", "tandis", "aussitot", "de peur", "par consequent",
-					"c est a dire", "d ailleurs", "vu que", "en outre", "au contraire", "de plus",
-					"de maniere", "de sorte", "parce", "alors", "ci", "ma", "ta", "sa", "mon",
-					"ton", "son", "mes", "tes", "ses", "nos", "vos", "leurs", "au", "aux", "en",
-					"ou", "soi", "et", "par", "etre", "pas", "sur", "plus", "te", "tu", "toi",
-					"pour", "je", "me", "moi", "ce", "cet", "cette", "ces", "un", "une", "uns",
-					"unes", "comme", "le", "la", "les", "qu", "que", "de", "du", "des", "dans",
-					"lui", "elle", "se", "mais", "sans", "ne", "avoir", "faire", "peu", "meme", 
-					"non", "fois", "vers", "chez", "jusque", "tres", "quel", "quelle", "quels",
-					"quelles", "devant", "ici", "oui", "trop", "chaque", "deja", "tant", "avant",
-					"enfin", "ah", "voila", "tel", "fait", "est", "oh", "eh", "cas", "sont", 
-					"suis", "es", "etes", "ete", "sommes", "ont", "eu", "eus", "avait", "avaient",
-					"etait", "etaient", "lorsqu", "peut", "peux", "peuvent", "ayant", "i+", "vi+",
-					"i+x", "xi+"
-			};
 			
-//			Removes common words.
-			for (String word : commonWords) {
-				inputText = inputText.replaceAll("(\\s+|^)" + word + "(\\s+|$)", " ");		
+//			Reads bytes until we reach a separator or the end of text (we don't want to cut 
+//			records).
+			if (!isSkippingRecordEnd && lastByte != this.separator) {
+				ByteArrayOutputStream additionalBytes = new ByteArrayOutputStream();
+				readUntilSeparator(this.inputChannel, additionalBytes, this.endPosition, 
+						this.separator);
+				if (length + additionalBytes.size() > buffer.length) {
+					buffer = Arrays.copyOf(buffer, length + additionalBytes.size());
+				}
+				System.arraycopy(additionalBytes.toByteArray(), 0, buffer, length, 
+						additionalBytes.size());
+				length = length + additionalBytes.size();
 			}
-	
-//			Splits the text into words.
-			String[] words = inputText.split("\\s+");
 			
-//			Set of keys.
-			HashSet<String> uniqueWords = new HashSet<String>();
-
-//			For each word, we write it to the output file with synchronization. Then if it is a 
-//			new word (not present in the word set), we add it to the set of words and send it 
-//			to the Master via SSH.
-			for (String word : words) {
-				if (!(word == null) && !(word.length() < 2)) {
-					synchronized (this.outputWriter) {
-						this.outputWriter.write(word + " 1\n");
-					}					
-					if (uniqueWords.add(word)) {
-						System.out.println(word);
-					}
-				}
+//			Processes the last record.
+			if (!isSkippingRecordEnd) {
+				this.processText(buffer, 0, length);
 			}
 			
-		} catch (Exception e) {
+//			Writes the counts still held by the CombiningBuffer of the thread.
+			this.checkCancelled();
+			this.combiningBuffer.close();
+			
+//		Any error, even an OutOfMemoryError, is kept: the slave must not send the end signal if
+//		a part of the split was not processed.
+		} catch (Throwable e) {
 			e.printStackTrace();
+			this.failure = e;
+		}
+		
+	}
+	
+	
+//	Processes a part of the text which doesn't cut any record: the Mapper gives its couples to the
+//	collect methods. We stop if the master has cancelled the job, before the CombiningBuffer
+//	writes more couples to the UMx files.
+	private void processText(byte[] buffer, int offset, int length) throws IOException {
+		this.checkCancelled();
+		this.mapper.map(buffer, offset, length, this);
+	}
+
+
+//	Throws an exception if the master has closed its connection before the end of the job.
+	private void checkCancelled() throws IOException {
+		if (this.controlReader.isClosed()) {
+			throw new IOException("Job cancelled by the master");
 		}
+	}
+	
+	
+//	For each couple given by the Mapper, we add its value to the count of its key in the 
+//	CombiningBuffer of the thread. The keys are only written to the UMx files, the Master doesn't
+//	need them.
+	@Override
+	public void collect(byte[] bytes, int offset, int length, long value) throws IOException {
+		this.combiningBuffer.add(bytes, offset, length, value);
+	}
+	@Override
+	public void collect(String key, long value) throws IOException {
+		this.combiningBuffer.add(key, value);
+	}
+	
+	
+//	Reads bytes from a given position until a separator (included) or the end of the file, by
+//	small chunks.
+	private static void readUntilSeparator(FileChannel channel, ByteArrayOutputStream output, 
+			long position, byte separator) throws IOException {
 		
-	}	
+		ByteBuffer chunk = ByteBuffer.allocate(ADDITIONAL_BYTES_CHUNK);
+		while (true) {
+			chunk.clear();
+			int readBytes = channel.read(chunk, position);
+			if (readBytes <= 0) {
+				return;
+			}
+			for (int i = 0; i < readBytes; i++) {
+				output.write(chunk.get(i));
+				if (chunk.get(i) == separator) {
+					return;
+				}
+			}
+			position = position + readBytes;
+		}
+	}
 
 }
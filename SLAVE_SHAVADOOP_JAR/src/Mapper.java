@@ -0,0 +1,16 @@
+
+// Modules to import.
+import java.io.IOException;
+
+
+// Interface of the map function of a job. The input file is read by parts made of whole records,
+// and the Mapper gives the couples (key, value) of each part to a Collector. A Mapper is created
+// for each map thread, so it can keep its working arrays between two parts without any lock.
+public interface Mapper {
+
+
+//	Gives the couples (key, value) of a part of the input file, which doesn't cut any record, to
+//	the Collector.
+	public void map(byte[] buffer, int offset, int length, Collector collector) throws IOException;
+
+}
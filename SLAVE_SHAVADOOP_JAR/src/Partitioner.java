@@ -0,0 +1,12 @@
+
+// Interface of the function that gives the partition of a key, which is also the number of the UMx
+// file where the mappers write it. Every slave must give the same partition to the same key, so
+// the function can only depend on the bytes of the key.
+public interface Partitioner {
+
+
+//	Returns the partition, between 0 and the number of partitions (excluded), of a key given as
+//	UTF-8 bytes.
+	public int partition(byte[] bytes, int offset, int length, int numberOfPartitions);
+
+}
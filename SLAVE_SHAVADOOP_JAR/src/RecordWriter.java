@@ -0,0 +1,269 @@
+
+// Modules to import.
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+
+// Class that sends the outputs of a job (couples (key, count), progress and statistics) to the
+// master in a compact binary format, instead of text lines. The records are batched into
+// length-prefixed frames, and the counts are encoded by the ValueCodec of the job.
+public class RecordWriter {
+
+
+//	Constants of the protocol, shared with the RecordReader of the master. The stream starts with
+//	the magic number and the flags, followed by frames: the type of the frame, the length of its
+//	payload as a varint and the payload. The payload of a RECORDS frame is the number of records
+//	followed by the records. A record is the length of its key in UTF-8 as a varint followed by
+//	the bytes of the key, then its count encoded by the ValueCodec of the job if the stream has
+//	counts. The payload of a STATS frame is the number of values followed by the values as
+//	varints. The payload of a PROGRESS frame is the work done and the total work of the job, as
+//	varints.
+	public static final int MAGIC_NUMBER = 0x53485652;
+	public static final int FLAG_COUNTS = 2;
+	public static final int FRAME_RECORDS = 1;
+	public static final int FRAME_END = 2;
+	public static final int FRAME_STATS = 3;
+	public static final int FRAME_PROGRESS = 4;
+
+//	A frame is sent when it reaches one of these limits, so that the master receives the records
+//	while the job is running.
+	private static final int MAX_FRAME_RECORDS = 1024;
+	private static final int MAX_FRAME_BYTES = 1 << 16;
+
+//	Time between two heartbeats, in ms. The master considers that the job is lost if it receives
+//	nothing for several periods.
+	private static final long HEARTBEAT_PERIOD = 1000;
+
+
+//	Fields.
+	private OutputStream output; // Stream to the master (SSH or daemon connection).
+	private int flags; // Flags of the stream.
+	private ValueCodec valueCodec; // Encoding of the counts of the records.
+	private byte[] records; // Records of the frame not yet sent.
+	private int recordsLength; // Number of bytes of the records of the frame.
+	private int numberOfRecords; // Number of records of the frame.
+	private long work; // Work done by the job, in a unit chosen by the job.
+	private long totalWork; // Total work of the job, 0 if unknown.
+	private Timer heartbeat; // Sends the progress regularly, null if not started.
+	private boolean isEnded; // True once the end signal is sent.
+	private boolean isConnectionLost; // True if a heartbeat couldn't be sent to the master.
+
+
+//	Constructor.
+	public RecordWriter(OutputStream output, boolean hasCounts, ValueCodec valueCodec) 
+			throws IOException {
+
+		this.output = output;
+		this.flags = hasCounts ? FLAG_COUNTS : 0;
+		this.valueCodec = valueCodec;
+		this.records = new byte[MAX_FRAME_BYTES + 64];
+		this.recordsLength = 0;
+		this.numberOfRecords = 0;
+		this.work = 0;
+		this.totalWork = 0;
+		this.isEnded = false;
+		this.isConnectionLost = false;
+
+		byte[] header = new byte[] {(byte) (MAGIC_NUMBER >>> 24), (byte) (MAGIC_NUMBER >>> 16),
+				(byte) (MAGIC_NUMBER >>> 8), (byte) MAGIC_NUMBER, (byte) this.flags};
+		this.output.write(header);
+	}
+
+
+//	Adds a couple (key, count) to the current frame, for the UMx -> RMx mode.
+	public synchronized void writeKeyCount(String key, long count) throws IOException {
+		this.writeRecord(key, count);
+	}
+
+
+//	Sends statistics of the job to the master, after the records already written.
+	public synchronized void writeStats(long[] values) throws IOException {
+
+		this.flush();
+		byte[] payload = new byte[5 + 10 * values.length];
+		int payloadLength = putVarint(payload, 0, values.length);
+		for (long value : values) {
+			payloadLength = payloadLength + putVarlong(payload, payloadLength, value);
+		}
+		this.writeFrame(FRAME_STATS, payload, payloadLength);
+	}
+
+
+//	Sets the total work of the job, in the unit of addProgress().
+	public synchronized void setTotalWork(long totalWork) {
+		this.totalWork = totalWork;
+	}
+
+//	Adds work done by the job and sends the progress to the master, which uses it to detect the
+//	slow jobs. The records not yet sent stay in the current frame.
+	public synchronized void addProgress(long work) throws IOException {
+
+		this.work = this.work + work;
+		byte[] payload = new byte[20];
+		int payloadLength = putVarlong(payload, 0, this.work);
+		payloadLength = payloadLength + putVarlong(payload, payloadLength, this.totalWork);
+		this.writeFrame(FRAME_PROGRESS, payload, payloadLength);
+		this.output.flush();
+	}
+
+
+//	Sends the last frame and the end signal to the master.
+	public synchronized void writeEnd() throws IOException {
+
+		this.flush();
+		this.output.write(new byte[] {(byte) FRAME_END, 0});
+		this.output.flush();
+		this.isEnded = true;
+		if (this.heartbeat != null) {
+			this.heartbeat.cancel();
+		}
+	}
+
+
+//	Sends a frame other than a RECORDS frame.
+	private void writeFrame(int frameType, byte[] payload, int payloadLength) throws IOException {
+
+		byte[] frameHeader = new byte[6];
+		frameHeader[0] = (byte) frameType;
+		int headerLength = 1 + putVarint(frameHeader, 1, payloadLength);
+		this.output.write(frameHeader, 0, headerLength);
+		this.output.write(payload, 0, payloadLength);
+	}
+
+
+//	Starts sending the progress to the master regularly, even if it hasn't changed, so that the
+//	master knows that the job is alive. The heartbeat stops with the end signal, or at the first
+//	error (the master has closed the connection).
+	public synchronized void startHeartbeat() {
+
+		this.heartbeat = new Timer("heartbeat", true);
+		this.heartbeat.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					sendHeartbeat();
+				} catch (IOException e) {
+					setConnectionLost();
+					this.cancel();
+				}
+			}
+		}, HEARTBEAT_PERIOD, HEARTBEAT_PERIOD);
+	}
+
+//	Returns true if the master has closed the connection, so that a job waiting for its inputs can
+//	stop instead of waiting forever.
+	public synchronized boolean isConnectionLost() {
+		return this.isConnectionLost;
+	}
+	private synchronized void setConnectionLost() {
+		this.isConnectionLost = true;
+	}
+
+//	Sends the current progress, unless the end signal was sent.
+	private synchronized void sendHeartbeat() throws IOException {
+		if (!this.isEnded) {
+			this.addProgress(0);
+		}
+	}
+
+
+//	Encodes a record at the end of the current frame, and sends the frame if it is full.
+	private void writeRecord(String key, long count) throws IOException {
+
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		this.writeVarint(keyBytes.length);
+		this.ensureCapacity(keyBytes.length);
+		System.arraycopy(keyBytes, 0, this.records, this.recordsLength, keyBytes.length);
+		this.recordsLength = this.recordsLength + keyBytes.length;
+		if ((this.flags & FLAG_COUNTS) != 0) {
+			this.ensureCapacity(ValueCodec.MAX_LENGTH);
+			this.recordsLength = this.valueCodec.write(count, this.records, this.recordsLength);
+		}
+
+		this.numberOfRecords++;
+		if (this.numberOfRecords == MAX_FRAME_RECORDS || this.recordsLength >= MAX_FRAME_BYTES) {
+			this.flush();
+		}
+	}
+
+
+//	Sends the current frame, if it is not empty.
+	private void flush() throws IOException {
+
+		if (this.numberOfRecords == 0) {
+			return;
+		}
+
+//		The payload is the number of records followed by the records, we write the header of the
+//		frame before them.
+		byte[] frameHeader = new byte[11];
+		frameHeader[0] = (byte) FRAME_RECORDS;
+		int headerLength = 1 + putVarint(frameHeader, 1,
+				varintSize(this.numberOfRecords) + this.recordsLength);
+		headerLength = headerLength + putVarint(frameHeader, headerLength, this.numberOfRecords);
+		this.output.write(frameHeader, 0, headerLength);
+		this.output.write(this.records, 0, this.recordsLength);
+		this.output.flush();
+
+		this.recordsLength = 0;
+		this.numberOfRecords = 0;
+	}
+
+
+//	Writes an unsigned varint at the end of the current frame.
+	private void writeVarint(int value) {
+		this.ensureCapacity(5);
+		this.recordsLength = this.recordsLength + putVarint(this.records, this.recordsLength, value);
+	}
+
+
+//	Grows the buffer of the frame if it can't hold the given number of additional bytes (a single
+//	key can be bigger than a frame).
+	private void ensureCapacity(int additionalBytes) {
+		if (this.recordsLength + additionalBytes > this.records.length) {
+			this.records = Arrays.copyOf(this.records,
+					Math.max(this.records.length * 2, this.recordsLength + additionalBytes));
+		}
+	}
+
+
+//	Writes an unsigned varint (7 bits per byte, the high bit is set if more bytes follow) at the
+//	given position and returns its size.
+	private static int putVarint(byte[] buffer, int position, int value) {
+		int size = 0;
+		while ((value & ~0x7F) != 0) {
+			buffer[position + size] = (byte) ((value & 0x7F) | 0x80);
+			value = value >>> 7;
+			size++;
+		}
+		buffer[position + size] = (byte) value;
+		return size + 1;
+	}
+
+//	Writes an unsigned varint of a long at the given position and returns its size.
+	private static int putVarlong(byte[] buffer, int position, long value) {
+		int size = 0;
+		while ((value & ~0x7FL) != 0) {
+			buffer[position + size] = (byte) ((value & 0x7F) | 0x80);
+			value = value >>> 7;
+			size++;
+		}
+		buffer[position + size] = (byte) value;
+		return size + 1;
+	}
+
+//	Returns the size of an unsigned varint.
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value = value >>> 7;
+			size++;
+		}
+		return size;
+	}
+
+}
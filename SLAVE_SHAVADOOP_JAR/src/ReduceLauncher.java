@@ -1,86 +1,113 @@
 
 // Modules to import.
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
+import java.io.IOException;
 
 
-// Class that executes a partial reduce job in a new thread on the same machine.
+// Class that executes a partial reduce job, the count of the words of one partition, in a task of
+// the reduce thread pool of the slave. The reducer can be launched before the end of the map phase,
+// so the UMx files of the mappers still running don't exist yet: each run of the task counts the
+// files of the mappers which the master has committed since the previous run, and the task is
+// submitted again as the master commits new mappers, until every file of the partition is counted.
 public class ReduceLauncher implements Runnable {
 	
 	
 //	Fields.
-	private String[] keys; // Words to consider for the reduce job.
-	private File inputFile; // The input file to do the reducing job on.
-	private Map<String, Integer> keysCounts; // For counting the occurences of each key.
-	private Thread thread; // Thread associated with this class instance.
+	private File[] inputFiles; // The UMx files of the partition, one for each mapper.
+	private int[] committedMappers; // Mappers committed by the master, in the order of the commits.
+	private int numberOfCommittedMappers; // Number of committed mappers, when the task is submitted.
+	private int numberOfReadFiles; // Number of UMx files already counted, in the order of the commits.
+	private CountMap keysCounts; // For aggregating the counts of each key, by the Reducer.
+	private ValueCodec valueCodec; // Encoding of the counts in the UMx files.
+	private long readRecords; // Number of (word, count) couples read from the input files.
+	private Throwable failure; // Error that stopped the task, null if it has succeeded.
 	
 
-//	Constructor.
-	public ReduceLauncher(String[] keys, File inputFile) {
+//	Constructor. The counts of a key are aggregated by the Reducer of the job, a sum for the
+//	occurences of the words. The array of the committed mappers is shared by the tasks of the 
+//	reducer, and filled by the slave as the master commits the mappers.
+	public ReduceLauncher(File[] inputFiles, int[] committedMappers, Reducer reducer, 
+			ValueCodec valueCodec) {
 		
-		this.keys = keys;
-		this.inputFile = inputFile;
-		this.keysCounts = new HashMap<String, Integer>();
+		this.inputFiles = inputFiles;
+		this.committedMappers = committedMappers;
+		this.numberOfCommittedMappers = 0;
+		this.numberOfReadFiles = 0;
+		this.keysCounts = new CountMap(reducer);
+		this.valueCodec = valueCodec;
 	}
 
 
 //	Getters and setters.
-	public Thread getThread() {
-		return this.thread;
+	public CountMap getKeysCounts() {
+		return this.keysCounts;
 	}
-	public void setThread(Thread thread) {
-		this.thread = thread;
+	public long getReadRecords() {
+		return this.readRecords;
 	}
-	public Map<String, Integer> getKeysCounts() {
-		return this.keysCounts;
+	public Throwable getFailure() {
+		return this.failure;
+	}
+	public void setNumberOfCommittedMappers(int numberOfCommittedMappers) {
+		this.numberOfCommittedMappers = numberOfCommittedMappers;
 	}
 
 
-	//	Partial reduce job executed in a new thread when Thread.start() is called by Master.
+//	Returns true once every UMx file of the partition is counted.
+	public boolean isComplete() {
+		return this.numberOfReadFiles == this.inputFiles.length;
+	}
+
+//	Returns true if a mapper whose UMx file is not counted yet has been committed. The master 
+//	renames the files of a mapper atomically before it sends the commit, so the file is complete.
+	public boolean hasNewInputFiles() {
+		return this.numberOfReadFiles < this.numberOfCommittedMappers;
+	}
+
+
+//	Partial reduce job executed in a task of the reduce thread pool of the slave.
 	@Override
 	public void run() {
 		
-//		For counting the occurences of each key.
-		for (String key : this.keys) {
-			this.keysCounts.put(key, 0);
-		}
-		
-//		For reading the input file.
-		Scanner inputReader = null;
-		
 		try {
 			
-//			Initializes the reader.
-			inputReader = new Scanner(new FileInputStream(this.inputFile));
-			
-//			We loop for each line of the input file (each line contains a word).
-			String wordRead = null;
-			Integer matchingCount = 0;
-			while (inputReader.hasNextLine()) {	
-				
-//				We check if the word is a member of the keys set, and if so we increment its 
-//				current count in the Map.
-				if ((matchingCount = this.keysCounts.get(
-						wordRead = inputReader.nextLine().split(" ")[0])) != null) {
-					this.keysCounts.put(wordRead, matchingCount + 1);
-				}
+//			We read the UMx file of every newly committed mapper into the same CountMap, so the
+//			counts of the mappers already ended are aggregated while the others are running.
+			while (this.numberOfReadFiles < this.numberOfCommittedMappers) {
+				this.readInputFile(this.inputFiles[this.committedMappers[this.numberOfReadFiles]]);
+				this.numberOfReadFiles++;
 			}
 			
-//		Now the partial job is done, the main thread will do the rest of the reducing.
+//		Now the partial job is done, the main thread will write the counts.
 			
-		} catch (Exception e) {
+//		Any error is kept, so that the slave doesn't send incomplete counts.
+		} catch (Throwable e) {
 			e.printStackTrace();
-		} finally {
-			inputReader.close();
+			this.failure = e;
 		}
 		
-		
 	}
 	
 	
-	
+//	Reads a UMx file and adds its counts to the CountMap. Each couple contains a word and its 
+//	count, aggregated by the CombiningBuffer of the mapper. Every word of the file belongs to the
+//	partition of this task. The words are added as bytes, no String is created.
+	private void readInputFile(File inputFile) throws IOException {
+		
+		BlockReader blockReader = new BlockReader(new BufferedInputStream(
+				new FileInputStream(inputFile), 1 << 16), this.valueCodec);
+		try {
+			while (blockReader.next()) {
+				this.keysCounts.add(blockReader.getKeyBytes(), 0, blockReader.getKeyLength(), 
+						blockReader.getCount());
+				this.readRecords++;
+			}
+		} finally {
+			blockReader.close();
+		}
+		
+	}
 
 }
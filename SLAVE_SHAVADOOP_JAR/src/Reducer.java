@@ -0,0 +1,8 @@
+
+// Interface of the function that aggregates the values of a key in a reducer. The reducers count
+// the UMx files as the mappers commit them, so they can't wait for all the values of a key: a
+// Reducer aggregates them two by two like a Combiner, and must be associative and commutative too.
+// The value of a key written to the RMx file is the aggregate of all its values.
+public interface Reducer extends Combiner {
+
+}
@@ -0,0 +1,273 @@
+
+// Modules to import.
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+// Class that writes the couples (key, count) of a reducer to its output file as a run, sorted from
+// the most frequent key then by key, so that the master can merge the runs of all the reducers. If
+// there are too many keys to sort them at once, they are sorted by parts spilled to disk, which are
+// then merged into the output file. The output file and the spilled parts are in the block format
+// of BlockWriter.
+public class RunWriter {
+
+
+//	Heap cost of one key being sorted (its sort keys by count and by key).
+	private static final long BYTES_PER_KEY = 16;
+
+//	Number of first bytes of the keys packed in a long with their number, for sorting by key.
+	private static final int PREFIX_BYTES = 3;
+
+//	Number of low bits of the number of a couple packed in a long with the rank of its count, for
+//	sorting by count, and last rank (of the counts up to Integer.MIN_VALUE).
+	private static final int NUMBER_BITS = 31;
+	private static final long NUMBER_MASK = (1L << NUMBER_BITS) - 1;
+	private static final long LOWEST_RANK = (1L << 32) - 1;
+
+
+//	Fields.
+	private int maxRunKeys; // Number of keys sorted at once before spilling to disk.
+	private ValueCodec valueCodec; // Encoding of the counts in the files.
+
+
+//	Constructor. The memory bound is a quarter of the maximum heap of the slave.
+	public RunWriter(ValueCodec valueCodec) {
+		this((int) Math.min(Integer.MAX_VALUE - 8,
+				Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_KEY), valueCodec);
+	}
+
+//	Constructor with an explicit memory bound, in number of keys.
+	public RunWriter(int maxRunKeys, ValueCodec valueCodec) {
+		this.maxRunKeys = Math.max(maxRunKeys, 1);
+		this.valueCodec = valueCodec;
+	}
+
+
+//	Writes the couples of the partitions (which have no key in common) to the output file, sorted
+//	from the most frequent key. The file is closed when the method returns. The keys of all the
+//	partitions are numbered one after the other, and sorted by ranges of these numbers.
+	public void write(List<CountMap> partitionsKeysCounts, File outputFile) throws IOException {
+
+		int[] partitionsStarts = new int[partitionsKeysCounts.size() + 1];
+		for (int partition = 0; partition < partitionsKeysCounts.size(); partition++) {
+			partitionsStarts[partition + 1] = partitionsStarts[partition] 
+					+ partitionsKeysCounts.get(partition).size();
+		}
+		int numberOfKeys = partitionsStarts[partitionsKeysCounts.size()];
+
+//		If the keys fit in memory, the output file is a single sorted part.
+		if (numberOfKeys <= this.maxRunKeys) {
+			this.writeSortedPart(partitionsKeysCounts, partitionsStarts, 0, numberOfKeys, 
+					outputFile, true);
+			return;
+		}
+
+//		Otherwise we spill sorted parts next to the output file, and merge them.
+		List<File> spillFiles = new ArrayList<File>();
+		try {
+			for (int start = 0; start < numberOfKeys; start = start + this.maxRunKeys) {
+				File spillFile = new File(outputFile.getPath() + ".spill" + spillFiles.size());
+				spillFiles.add(spillFile);
+				this.writeSortedPart(partitionsKeysCounts, partitionsStarts, start, 
+						Math.min(start + this.maxRunKeys, numberOfKeys), spillFile, false);
+			}
+
+			RunMerger runMerger = new RunMerger(this.valueCodec);
+			for (File spillFile : spillFiles) {
+				runMerger.addRun(spillFile);
+			}
+			BlockWriter outputWriter = this.createBlockWriter(outputFile, true);
+			try {
+				runMerger.mergeTo(outputWriter);
+			} finally {
+				outputWriter.close();
+			}
+
+		} finally {
+			for (File spillFile : spillFiles) {
+				spillFile.delete();
+			}
+		}
+	}
+
+
+//	Sorts the couples between the given key numbers (end excluded) and writes them to a file. Each
+//	couple is represented by a long, the rank of its count (Integer.MAX_VALUE - count, from 0 to
+//	LOWEST_RANK) in the high bits and its number in the low bits, so that we can use the parallel
+//	sort of primitives instead of comparing objects. The counts which don't fit in an int share the
+//	first or the last rank, and these few keys are then sorted between them by their exact count.
+//	The couples of the same count are then sorted by key. The keys are written from their bytes,
+//	no String is created. The file is the RMx file itself, or a spill file.
+	private void writeSortedPart(List<CountMap> partitionsKeysCounts, int[] partitionsStarts,
+			int start, int end, File file, boolean isOutput) throws IOException {
+
+		long[] sortedNumbers = new long[end - start];
+		int partition = 0;
+		for (int number = start; number < end; number++) {
+			while (number >= partitionsStarts[partition + 1]) {
+				partition++;
+			}
+			long count = Math.max(Math.min(partitionsKeysCounts.get(partition).getCount(
+					number - partitionsStarts[partition]), Integer.MAX_VALUE), Integer.MIN_VALUE);
+			sortedNumbers[number - start] = (Integer.MAX_VALUE - count) << NUMBER_BITS | number;
+		}
+		Arrays.parallelSort(sortedNumbers);
+
+//		Each run of couples of the same rank is sorted by key, in the low bits of the longs. The
+//		first and the last ranks are sorted with the exact counts.
+		long[] prefixedNumbers = new long[sortedNumbers.length];
+		int runStart = 0;
+		for (int i = 1; i <= sortedNumbers.length; i++) {
+			long rank = sortedNumbers[runStart] >>> NUMBER_BITS;
+			if (i == sortedNumbers.length || sortedNumbers[i] >>> NUMBER_BITS != rank) {
+				if (i - runStart > 1 && (rank == 0 || rank == LOWEST_RANK)) {
+					sortByExactCount(partitionsKeysCounts, partitionsStarts, sortedNumbers,
+							runStart, i);
+				} else if (i - runStart > 1) {
+					for (int j = runStart; j < i; j++) {
+						prefixedNumbers[j] = sortedNumbers[j] & NUMBER_MASK;
+					}
+					sortByKey(partitionsKeysCounts, partitionsStarts, prefixedNumbers, runStart, i,
+							0);
+					for (int j = runStart; j < i; j++) {
+						sortedNumbers[j] = rank << NUMBER_BITS | (int) prefixedNumbers[j];
+					}
+				}
+				runStart = i;
+			}
+		}
+
+		BlockWriter writer = this.createBlockWriter(file, isOutput);
+		try {
+			for (long sortedNumber : sortedNumbers) {
+				int number = (int) (sortedNumber & NUMBER_MASK);
+				partition = findPartition(partitionsStarts, number);
+				CountMap keysCounts = partitionsKeysCounts.get(partition);
+				int index = number - partitionsStarts[partition];
+				writer.write(keysCounts.getKeyBytes(), keysCounts.getKeyOffset(index), 
+						keysCounts.getKeyLength(index), keysCounts.getCount(index));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+
+//	Sorts by their exact count, and by key for equal counts, the couples of a sorted part between
+//	the given positions (end excluded), whose counts don't fit in an int and share the same rank.
+	private static void sortByExactCount(final List<CountMap> partitionsKeysCounts,
+			final int[] partitionsStarts, long[] sortedNumbers, int from, int to) {
+
+		Long[] largeCounts = new Long[to - from];
+		for (int i = from; i < to; i++) {
+			largeCounts[i - from] = sortedNumbers[i];
+		}
+		Arrays.sort(largeCounts, new Comparator<Long>() {
+			@Override
+			public int compare(Long sortedNumber1, Long sortedNumber2) {
+				int number1 = (int) (sortedNumber1 & NUMBER_MASK);
+				int number2 = (int) (sortedNumber2 & NUMBER_MASK);
+				int partition1 = findPartition(partitionsStarts, number1);
+				int partition2 = findPartition(partitionsStarts, number2);
+				CountMap keysCounts1 = partitionsKeysCounts.get(partition1);
+				CountMap keysCounts2 = partitionsKeysCounts.get(partition2);
+				int index1 = number1 - partitionsStarts[partition1];
+				int index2 = number2 - partitionsStarts[partition2];
+				int countComparison = Long.compare(keysCounts2.getCount(index2), 
+						keysCounts1.getCount(index1));
+				return countComparison != 0 ? countComparison 
+						: BlockFormat.compareKeys(keysCounts1.getKeyBytes(), 
+								keysCounts1.getKeyOffset(index1), keysCounts1.getKeyLength(index1),
+								keysCounts2.getKeyBytes(), keysCounts2.getKeyOffset(index2), 
+								keysCounts2.getKeyLength(index2));
+			}
+		});
+		for (int i = from; i < to; i++) {
+			sortedNumbers[i] = largeCounts[i - from];
+		}
+	}
+
+
+//	Sorts by key the couples between the given positions of prefixedNumbers (end excluded), whose
+//	keys are the same until the given depth, by the PREFIX_BYTES bytes of their keys after this
+//	depth, like BlockWriter sorts the couples of a block. Each couple is represented by a long, these
+//	bytes in the high bits and its number in the low bits. The bytes after the end of a key are
+//	zeros. If no key of the couples has bytes after this depth, they are sorted by length, the
+//	shorter key first.
+	private static void sortByKey(List<CountMap> partitionsKeysCounts, int[] partitionsStarts,
+			long[] prefixedNumbers, int from, int to, int depth) {
+
+		boolean hasNextBytes = false;
+		for (int i = from; i < to; i++) {
+			int number = (int) prefixedNumbers[i];
+			int partition = findPartition(partitionsStarts, number);
+			CountMap keysCounts = partitionsKeysCounts.get(partition);
+			int index = number - partitionsStarts[partition];
+			byte[] keyBytes = keysCounts.getKeyBytes();
+			int start = keysCounts.getKeyOffset(index) + depth;
+			int length = keysCounts.getKeyLength(index) - depth;
+			long prefix = 0;
+			for (int j = 0; j < PREFIX_BYTES; j++) {
+				prefix = prefix << 8 | (j < length ? keyBytes[start + j] & 0xFF : 0);
+			}
+			hasNextBytes = hasNextBytes || length > 0;
+			prefixedNumbers[i] = prefix << 32 | number;
+		}
+		if (!hasNextBytes) {
+			for (int i = from; i < to; i++) {
+				int number = (int) prefixedNumbers[i];
+				int partition = findPartition(partitionsStarts, number);
+				long length = partitionsKeysCounts.get(partition).getKeyLength(
+						number - partitionsStarts[partition]);
+				prefixedNumbers[i] = length << 32 | number;
+			}
+			Arrays.sort(prefixedNumbers, from, to);
+			return;
+		}
+		Arrays.sort(prefixedNumbers, from, to);
+
+//		Each run of couples whose keys have the same bytes until the next depth is sorted again.
+		int runStart = from;
+		long runPrefix = prefixedNumbers[from] >>> 32;
+		for (int i = from + 1; i <= to; i++) {
+			if (i == to || prefixedNumbers[i] >>> 32 != runPrefix) {
+				if (i - runStart > 1) {
+					sortByKey(partitionsKeysCounts, partitionsStarts, prefixedNumbers, runStart, i,
+							depth + PREFIX_BYTES);
+				}
+				if (i < to) {
+					runStart = i;
+					runPrefix = prefixedNumbers[i] >>> 32;
+				}
+			}
+		}
+	}
+
+
+//	Returns the partition of a couple from its number. Partitions without keys have the same start
+//	as the next one.
+	private static int findPartition(int[] partitionsStarts, int number) {
+
+		int partition = Arrays.binarySearch(partitionsStarts, number);
+		partition = partition >= 0 ? partition : -partition - 2;
+		while (partitionsStarts[partition + 1] == number) {
+			partition++;
+		}
+		return partition;
+	}
+
+
+//	Opens a file for writing couples in their order (sorted by count, not by key). Only the RMx file
+//	is compressed: the spill files are read back once on this machine, then deleted.
+	private BlockWriter createBlockWriter(File file, boolean isCompressed) throws IOException {
+		return new BlockWriter(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), 
+				false, isCompressed, this.valueCodec);
+	}
+
+}
@@ -1,73 +1,225 @@
 
 // Modules to import.
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 // Class that will execute a map job or a reduce job on a worker machine.
 public class Slave {
 
 	
-//  Entry point. This method will be executed when Slave.jar is launched by a JobLauncher.
+//  Entry point. This method will be executed when Slave.jar is launched by a JobLauncher, or 
+//	via SSH to start a Slave daemon.
 	public static void main(String[] args) {
-				
-//		As we are in a static context, we need to instantiate a Slave object to be able to access 
-//		its fields and methods.
-		Slave slave = new Slave(args);
 		
-//		First we need to check whether the job is a map or a reduce.		
 //		If no arguments are passed, we throw an error.
 		if (args.length < 1) {
 			System.err.println("Must have <mode> as first argument");
 			System.exit(1);
-			
-//		If "SXUMX" is passed, then we launch a map job.
-		} else if (args[0].equals("SXUMX")){
-			slave.startMap();
-			
-//		If "UMXRMX" is passed, we launch a reduce job.
-		} else if (args[0].equals("UMXRMX")) {
-			slave.startReduce();
-			
-//		Otherwise we throw an error.
-		} else {
-			System.err.println("Mode must be in ['SXUMX', 'UMXRMX']");
-			System.exit(1);			
 		}
 		
+//		If "DUMP" is passed, we print the couples of UMx or RMx files as text, for debugging. The
+//		job which wrote the files gives the codec of their counts.
+		if (args[0].equals("DUMP")) {
+			if (args.length < 3 || !JobCatalog.NAMES.contains(args[1])) {
+				System.err.println("For DUMP mode, must add <job, UMx or RMx files> as arguments, "
+						+ "jobs are " + JobCatalog.NAMES);
+				System.exit(1);
+			}
+			if (!dump(JobCatalog.getValueCodec(args[1]), 
+					Arrays.copyOfRange(args, 2, args.length))) {
+				System.exit(1);
+			}
+			return;
+		}
+		
+//		If "DAEMON" is passed, we start a daemon which will run the jobs sent by the JobLaunchers
+//		in this JVM, until it is killed. It only accepts the connections of the given adresses of
+//		the masters, or of the machine itself if none is given.
+		if (args[0].equals("DAEMON")) {
+			if (args.length < 2) {
+				System.err.println("For DAEMON mode, must add <port> as argument, followed by the "
+						+ "optional <master adresses>");
+				System.exit(1);
+			}
+			List<InetAddress> masterAdresses = new ArrayList<InetAddress>();
+			try {
+				for (int i = 2; i < args.length; i++) {
+					masterAdresses.add(InetAddress.getByName(args[i]));
+				}
+			} catch (UnknownHostException e) {
+				System.err.println("Unknown master adress: " + e.getMessage());
+				System.exit(1);
+			}
+			new SlaveDaemon(Integer.parseInt(args[1]), masterAdresses).run();
+			return;
+		}
+				
+//		As we are in a static context, we need to instantiate a Slave object to be able to access 
+//		its fields and methods. The outputs are sent to the master via SSH, on the standard output
+//		itself rather than System.out, which hides the write errors: a job must know when the 
+//		master has closed the connection. The messages of the master are read on the standard input.
+		Slave slave = new Slave(args, System.in, new BufferedOutputStream(
+				new FileOutputStream(FileDescriptor.out), 1 << 16));
+		if (!slave.startJob()) {
+			System.exit(1);
+		}
 	}
 	
 	
+//	Time between two checks of the mappers committed by the master, in ms.
+	private static final long INPUT_POLL_PERIOD = 100;
+
+
 //	Fields.
 	private String[] args; // Arguments given by the master.
+	private InputStream input; // For reading the messages of the master (SSH or daemon socket).
+	private OutputStream output; // For sending the outputs to the master (SSH or daemon socket).
+	private File workingDirectory; // Only directory of the files of a daemon job, null via SSH.
+	private Job job; // Job whose map or reduce is run, given by its name after the mode.
+	private ValueCodec valueCodec; // Encoding of the values of the job, in files and records.
+	private ControlReader controlReader; // Messages of the master, closed if the job is cancelled.
+
 
+//	Constructor. We initialize the fields here. A job run via SSH can open any file of the user.
+	public Slave(String[] args, InputStream input, OutputStream output) {
+		this(args, input, output, null);
+	}
 
-//	Constructor. We initialize the fields here.
-	private Slave(String[] args) {
+//	Constructor of a job run by a daemon, which can only open the files of the working directory
+//	of the daemon (and of its subdirectories).
+	public Slave(String[] args, InputStream input, OutputStream output, File workingDirectory) {
 		this.args = args;
+		this.input = input;
+		this.output = output;
+		this.workingDirectory = workingDirectory;
 	}
 	
 	
+//	Prints the couples of UMx or RMx files, one "key count" line for each, in the order of the
+//	files. Returns false if a file can't be read.
+	private static boolean dump(ValueCodec valueCodec, String[] files) {
+		
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out, 
+				StandardCharsets.UTF_8), 1 << 16);
+		try {
+			for (String file : files) {
+				BlockReader blockReader = new BlockReader(new BufferedInputStream(
+						new FileInputStream(file), 1 << 16), valueCodec);
+				try {
+					while (blockReader.next()) {
+						writer.write(blockReader.getKey() + " " + blockReader.getCount() + "\n");
+					}
+				} finally {
+					blockReader.close();
+				}
+			}
+			writer.flush();
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	
+//	Runs the job given by the arguments. Returns false if the arguments are wrong or if the job
+//	has failed, in which case the end signal is not sent: the master will send the job to another
+//	slave.
+	public boolean startJob() {
+		
+//		First we need to check whether the job is a map or a reduce. Otherwise we throw an error.
+		if (!this.args[0].equals("SXUMX") && !this.args[0].equals("UMXRMX")) {
+			System.err.println("Mode must be in ['SXUMX', 'UMXRMX', 'DAEMON']");
+			return false;
+		}
+		
+//		The name of the job follows the mode. If it is not known, we throw an error.
+		if (this.args.length < 2 || Job.forName(this.args[1]) == null) {
+			System.err.println("Must have <job> as second argument, jobs are " + JobCatalog.NAMES);
+			return false;
+		}
+		this.job = Job.forName(this.args[1]);
+		this.valueCodec = JobCatalog.getValueCodec(this.args[1]);
+		
+//		If "SXUMX" is passed, then we launch a map job.
+		if (this.args[0].equals("SXUMX")){
+			return this.startMap();
+			
+//		If "UMXRMX" is passed, we launch a reduce job.
+		} else {
+			return this.startReduce();
+		}
+	}
+	
+	
+	
 //	Called by the main method to run a map job.
-	private void startMap() {
+	private boolean startMap() {
 			
 //		First we need to extract the arguments given by the user.
-		File outputFile = null;
+		String outputFilesPrefix = null;
 		File inputFile = null;
+		long splitStart = 0;
+		long splitEnd = 0;
+		int numberOfPartitions = 0;
 		
 //		We first need to check if the number of arguments given is correct. If they are not, we
 //		throw an error.
-		if (this.args.length != 3) {
-			System.err.println("For SXUMX mode, must add <output file, input file> as arguments");
-			System.exit(1);
-//		Otherwise we extract the arguments.
+		if (this.args.length != 7) {
+			System.err.println("For SXUMX mode, must add <job, output files prefix, input file, "
+					+ "split start, split end, number of partitions> as arguments");
+			return false;
+//		Otherwise we extract the arguments. The split is the range [split start, split end) of
+//		the input file, in bytes. There is one output file for each partition (each reducer), 
+//		named "<output files prefix>_<partition>.bin".
 		} else {
-			outputFile = new File(this.args[1]);
-			inputFile = new File(this.args[2]);
+			outputFilesPrefix = this.args[2];
+			inputFile = new File(this.args[3]);
+			splitStart = Long.parseLong(this.args[4]);
+			splitEnd = Long.parseLong(this.args[5]);
+			numberOfPartitions = Integer.parseInt(this.args[6]);
+		}
+		
+//		A job of a daemon can only read and write files in the working directory of the daemon.
+//		This is checked before the job starts, as a job which fails deletes its output files.
+		List<File> files = new ArrayList<File>();
+		files.add(inputFile);
+		for (int partition = 0; partition < numberOfPartitions; partition++) {
+			files.add(new File(outputFilesPrefix + "_" + partition + ".bin"));
+		}
+		if (!this.areInWorkingDirectory(files)) {
+			System.err.println("Error : files outside the working directory of the daemon");
+			return false;
 		}
 				
 //		We want to split the job using the number of available processors. So we build an array
@@ -75,147 +227,386 @@ public class Slave {
 		int numProcessors = Runtime.getRuntime().availableProcessors();
 		MapLauncher[] mapLaunchers = new MapLauncher[numProcessors];
 		
-//		Array of the input file decomposition.
-		int[] fileIndexes = new int[numProcessors + 1];
+//		Array of the split decomposition. The master cuts the input file at spaces, and the space
+//		between two splits belongs to no split: we start at this space, so that the splits cover
+//		the whole file. The records of a job may be lines, and a line may start at this space. 
+//		Like the parts of the threads, the split then begins with the end of the last record of 
+//		the previous split, which is skipped.
+		long partsStart = splitStart > 0 ? splitStart - 1 : splitStart;
+		long[] fileIndexes = new long[numProcessors + 1];
 		for (int i = 0; i < fileIndexes.length; i++) {
-			fileIndexes[i] = (int) Math.ceil(i * inputFile.length() / numProcessors);
+			fileIndexes[i] = partsStart + i * (splitEnd - partsStart) / numProcessors;
 		}
 		
-//		For reading the input file.
+//		For reading the input file. The threads read it with positional reads.
 		FileInputStream inputReader = null;
 		
-//		For writing the output UMx file. Each thread will write its part with synchronization.
-		PrintWriter outputWriter = null;
+//		For writing the output UMx files. Each thread counts its words in its own CombiningBuffer,
+//		which appends each word once with its aggregated count to the file of its partition, by
+//		segments of many couples. The channels of the files are shared by the threads.
+		FileChannel[] outputChannels = new FileChannel[numberOfPartitions];
+		CombiningBuffer[] combiningBuffers = new CombiningBuffer[numProcessors];
+		
+//		The master closes its connection if it cancels the job (in daemon mode, the job keeps
+//		running after it). We then stop before writing more outputs, and delete those already
+//		written: the master may have deleted the files of the attempt before we wrote them.
+		this.controlReader = new ControlReader(this.input);
+		this.controlReader.start();
+		boolean isEnded = false;
 		
 		try {
 			
+			this.checkCancelled();
 			inputReader = new FileInputStream(inputFile);
-			outputWriter = new PrintWriter(outputFile);
+			for (int partition = 0; partition < outputChannels.length; partition++) {
+				outputChannels[partition] = FileChannel.open(Paths.get(outputFilesPrefix + "_" 
+						+ partition + ".bin"), StandardOpenOption.CREATE, 
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			}
+			
+//			The keys are only written to the UMx files: we send the master our progress and the
+//			end signal in binary frames, without records.
+			RecordWriter recordWriter = new RecordWriter(this.output, false, this.valueCodec);
+			
+//			The threads report the bytes of the split that they have processed, so that the master
+//			can see if we are slower than the other slaves.
+			recordWriter.setTotalWork(splitEnd - splitStart);
+			recordWriter.startHeartbeat();
 			
 //			We then initialize the MapLaunchers and start the threads associated with each one.
 			for (int i = 0; i < mapLaunchers.length; i++) {
+				combiningBuffers[i] = new CombiningBuffer(outputChannels, numProcessors, this.job,
+						this.valueCodec);
 				mapLaunchers[i] = new MapLauncher(fileIndexes[i], fileIndexes[i + 1], 
-						inputReader, outputWriter);
+						inputReader.getChannel(), combiningBuffers[i], recordWriter, 
+						this.controlReader, this.job.createMapper(), 
+						JobCatalog.getRecordSeparator(this.args[1]));
 				mapLaunchers[i].setThread(new Thread(mapLaunchers[i]));
 				mapLaunchers[i].getThread().start();
 			}	
 
-//			Now we wait for each thread to end.
+//			Now we wait for each thread to end. If one of them has failed, a part of the split is
+//			missing from our outputs, so the job has failed.
 			for (MapLauncher mapLauncher : mapLaunchers) {
 				try {
 					mapLauncher.getThread().join();
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
+				if (mapLauncher.getFailure() != null) {
+					System.err.println("Error : a map thread has failed");
+					return false;
+				}
 			}
 			
+//			We send the number of couples written to each partition by all the threads, so that
+//			the master can balance the partitions between the reducers.
+			long[] partitionsRecords = new long[numberOfPartitions];
+			for (CombiningBuffer combiningBuffer : combiningBuffers) {
+				long[] bufferPartitionsRecords = combiningBuffer.getPartitionsRecords();
+				for (int partition = 0; partition < numberOfPartitions; partition++) {
+					partitionsRecords[partition] = partitionsRecords[partition] 
+							+ bufferPartitionsRecords[partition];
+				}
+			}
+			recordWriter.writeStats(partitionsRecords);
+			
 //			The map job has ended, we now need to send the end signal to the master.
-			System.out.println("END OF PROCESS SXUMX");
+			recordWriter.writeEnd();
+			isEnded = true;
 			
-		} catch (FileNotFoundException e1) {
+		} catch (IOException e1) {
 			e1.printStackTrace();
+			return false;
 		} finally {
 			try {
-				inputReader.close();
-				outputWriter.close();
+				if (inputReader != null) {
+					inputReader.close();
+				}
+				for (FileChannel outputChannel : outputChannels) {
+					if (outputChannel != null) {
+						outputChannel.close();
+					}
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-		}
 			
+//			The outputs of a job which hasn't sent its end signal are never committed.
+			if (!isEnded) {
+				for (int partition = 0; partition < numberOfPartitions; partition++) {
+					new File(outputFilesPrefix + "_" + partition + ".bin").delete();
+				}
+			}
+		}
+		
+		return true;
 	}
 	
 	
 //	Called by the main method to run a reduce job.
-	private void startReduce() {
+	private boolean startReduce() {
 		
 //		First we need to extract the arguments given by the user.
 		File outputFile = null;
-		File[] inputFiles = null;
-		File keysFile = null;
+		List<File[]> inputPartitions = null;
+		int numberOfMappers = 0;
+		int topK = 0;
 		
 //		We first need to check if the number of arguments given is correct. If they are not, we
 //		throw an error.
-		if (this.args.length != 4) {
-			System.err.println("For UMXRMX mode, must add <output file, input files, keys file> "
-					+ "as arguments");
-			System.exit(1);
-//		Otherwise we extract the arguments. The input files argument is send by the master
-//		with triple underscore as separator.
+		if (this.args.length != 6 && this.args.length != 7) {
+			System.err.println("For UMXRMX mode, must add <job, output file, input files prefix, "
+					+ "number of mappers, partitions> as arguments, followed by the optional "
+					+ "<top K>");
+			return false;
+//		Otherwise we extract the arguments. The partitions argument is send by the master with
+//		commas as separator. Each mapper has written one UMx file for each partition, named 
+//		"<input files prefix><mapper>_<partition>.bin". So every word of the UMx files of our 
+//		partitions is ours, and every word belongs to a single partition.
 		} else {
-			outputFile = new File(this.args[1]);
-			String[] inputFilesAsStrings = this.args[2].split("___");
-			inputFiles = new File[inputFilesAsStrings.length];
-			for (int i = 0; i < inputFilesAsStrings.length; i++) {
-				inputFiles[i] = new File(inputFilesAsStrings[i]);
+			outputFile = new File(this.args[2]);
+			String inputFilesPrefix = this.args[3];
+			numberOfMappers = Integer.parseInt(this.args[4]);
+			inputPartitions = new ArrayList<File[]>();
+			for (String partitionAsString : this.args[5].split(",")) {
+				File[] inputFiles = new File[numberOfMappers];
+				for (int mapper = 0; mapper < numberOfMappers; mapper++) {
+					inputFiles[mapper] = new File(inputFilesPrefix + mapper + "_" 
+							+ partitionAsString + ".bin");
+				}
+				inputPartitions.add(inputFiles);
+			}
+//			If a top K is given, only the K most frequent words are sent to the master.
+			if (this.args.length == 7) {
+				topK = Integer.parseInt(this.args[6]);
 			}
-			keysFile = new File(this.args[3]);
 		}
 		
-//		For reading the keys file.
-		BufferedInputStream keysReader = null;
-		String[] keys = null;
-
-//		For writing the output RMx file.
-		PrintWriter outputWriter = null;
+//		Like a map job, a reduce job of a daemon can only read and write files in the working
+//		directory of the daemon. The parts spilled by RunWriter are next to the output file.
+		List<File> files = new ArrayList<File>();
+		files.add(outputFile);
+		for (File[] inputFiles : inputPartitions) {
+			files.addAll(Arrays.asList(inputFiles));
+		}
+		if (!this.areInWorkingDirectory(files)) {
+			System.err.println("Error : files outside the working directory of the daemon");
+			return false;
+		}
+		
+//		The master closes its connection if it cancels the job, like in the map jobs. It also 
+//		sends us the committed mappers on it.
+		this.controlReader = new ControlReader(this.input);
+		this.controlReader.start();
+		boolean isEnded = false;
 		
 		try {
 			
-//			Initializes the reader
-			keysReader = new BufferedInputStream(new FileInputStream(keysFile));
-			
-//			Reads the keys.
-			byte[] buffer = new byte[(int) keysFile.length()];
-			keysReader.read(buffer);
-			keys = (new String(buffer)).split("\\n");
-			System.err.println(keysFile.length());
+//			The couples are sent to the master in binary frames. The progress of the job is the
+//			number of partitions counted, plus the writing of the output file.
+			RecordWriter recordWriter = new RecordWriter(this.output, true, this.valueCodec);
+			recordWriter.setTotalWork(inputPartitions.size() + 1);
+			recordWriter.startHeartbeat();
 			
-//			We want to split the job using one thread for each input file. So we create an array
-//			of ReduceLaunchers and then launch the corresponding threads.
-			ReduceLauncher[] reduceLaunchers = new ReduceLauncher[inputFiles.length];
-			for (int inputFileNum = 0; inputFileNum < reduceLaunchers.length; inputFileNum++) {
-				reduceLaunchers[inputFileNum] = new ReduceLauncher(keys, inputFiles[inputFileNum]);
-				reduceLaunchers[inputFileNum].setThread(new Thread(reduceLaunchers[inputFileNum]));
-				reduceLaunchers[inputFileNum].getThread().start();
+//			We want to split the job using one task for each partition, which reads the UMx files
+//			of the partition. The tasks run on a pool with one thread for each available 
+//			processor, whatever the number of mappers. As the partitions have no word in common,
+//			each word is counted by a single task, and the counts of the tasks need no merge.
+//			The reducer may be launched before the end of the map phase: a task only counts the
+//			UMx files of the mappers already committed, and is submitted again when the master
+//			commits new ones, until every file of its partition is counted. So the counts of the
+//			ended mappers are aggregated while the last mappers are running. The master sends the
+//			number of each mapper once its files are committed, the files found in the UMx 
+//			directory are never trusted: they may be left by a previous run.
+			int[] committedMappers = new int[numberOfMappers];
+			boolean[] isMapperCommitted = new boolean[numberOfMappers];
+			int numberOfCommittedMappers = 0;
+			int numProcessors = Runtime.getRuntime().availableProcessors();
+			ExecutorService reduceExecutor = Executors.newFixedThreadPool(
+					Math.min(numProcessors, inputPartitions.size()));
+			CompletionService<ReduceLauncher> reduceResults = 
+					new ExecutorCompletionService<ReduceLauncher>(reduceExecutor);
+			List<ReduceLauncher> reduceLaunchers = new ArrayList<ReduceLauncher>();
+			for (File[] inputFiles : inputPartitions) {
+				reduceLaunchers.add(new ReduceLauncher(inputFiles, committedMappers, 
+						this.job.getReducer(), this.valueCodec));
 			}
 			
-//			Now we wait for each thread to end.
-			for (ReduceLauncher reduceLauncher : reduceLaunchers) {
-				try {
-					reduceLauncher.getThread().join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+//			Now we submit the tasks which have new files to count, and wait for them to end, or
+//			for new mappers to be committed. If a task has failed, the counts of its partition are 
+//			missing, so the job has failed.
+			try {
+				Set<ReduceLauncher> runningLaunchers = new HashSet<ReduceLauncher>();
+				int numberOfCountedPartitions = 0;
+				while (numberOfCountedPartitions < reduceLaunchers.size()) {
+					Integer committedMapper;
+					while ((committedMapper = this.controlReader.pollCommittedMapper()) != null) {
+						if (committedMapper >= 0 && committedMapper < numberOfMappers 
+								&& !isMapperCommitted[committedMapper]) {
+							isMapperCommitted[committedMapper] = true;
+							committedMappers[numberOfCommittedMappers] = committedMapper;
+							numberOfCommittedMappers++;
+						}
+					}
+					for (ReduceLauncher reduceLauncher : reduceLaunchers) {
+						if (runningLaunchers.contains(reduceLauncher)) {
+							continue;
+						}
+						reduceLauncher.setNumberOfCommittedMappers(numberOfCommittedMappers);
+						if (reduceLauncher.hasNewInputFiles()) {
+							reduceResults.submit(reduceLauncher, reduceLauncher);
+							runningLaunchers.add(reduceLauncher);
+						}
+					}
+					
+					Future<ReduceLauncher> reduceResult = reduceResults.poll(INPUT_POLL_PERIOD, 
+							TimeUnit.MILLISECONDS);
+					if (reduceResult == null) {
+						if (recordWriter.isConnectionLost() || this.controlReader.isClosed()) {
+							System.err.println("Error : job cancelled or connection with the "
+									+ "master lost");
+							return false;
+						}
+						continue;
+					}
+					ReduceLauncher reduceLauncher = reduceResult.get();
+					runningLaunchers.remove(reduceLauncher);
+					if (reduceLauncher.getFailure() != null) {
+						System.err.println("Error : a reduce task has failed");
+						return false;
+					}
+					if (reduceLauncher.isComplete()) {
+						numberOfCountedPartitions++;
+						recordWriter.addProgress(1);
+					}
 				}
+			} finally {
+				reduceExecutor.shutdownNow();
 			}
 
-//			Initializes the writer.
-			outputWriter = new PrintWriter(outputFile);
-			
-//			For each key we sum the counts of each partial reduce, send it to the master via SSH 
-//			and also write it to the output file.		
-			for (String key : keys) {
-				int keyCount = 0;
-				for (ReduceLauncher reduceLauncher : reduceLaunchers) {
-					keyCount = keyCount + reduceLauncher.getKeysCounts().get(key);
+//			Each task has counted the words of its partition.
+			List<CountMap> partitionsKeysCounts = new ArrayList<CountMap>();
+			long readRecords = 0;
+			for (ReduceLauncher reduceLauncher : reduceLaunchers) {
+				readRecords = readRecords + reduceLauncher.getReadRecords();
+				partitionsKeysCounts.add(reduceLauncher.getKeysCounts());
+			}
+			
+//			Every key is written with its count to the output file, sorted from the most frequent
+//			key: the master merges the output files of all the reducers into the final result.
+//			The file is closed before the end signal is sent.
+			this.checkCancelled();
+			new RunWriter(this.valueCodec).write(partitionsKeysCounts, outputFile);
+			recordWriter.addProgress(1);
+			
+//			Without top K, the master reads the output file, so we don't send the couples. With a
+//			top K, we send our K most frequent keys, from the most frequent: no other key of this
+//			reducer can be in the global top K.
+			if (topK > 0) {
+				long[] topPositions = selectTopKeys(partitionsKeysCounts, topK);
+				for (long topPosition : topPositions) {
+					CountMap keysCounts = partitionsKeysCounts.get((int) (topPosition >>> 32));
+					recordWriter.writeKeyCount(keysCounts.getKey((int) topPosition), 
+							keysCounts.getCount((int) topPosition));
 				}
-				System.out.println(key + " " + keyCount);
-				outputWriter.write(key + " " + keyCount + "\n");
 			}
 			
-//			The reduce job has ended, we now need to send the end signal to the master.
-			System.out.println("END OF PROCESS UMXRMX");
+//			The reduce job has ended, we now need to send the number of couples read (the actual
+//			load of the reducer) and the end signal to the master.
+			this.checkCancelled();
+			recordWriter.writeStats(new long[] {readRecords});
+			recordWriter.writeEnd();
+			isEnded = true;
 			
 		} catch (Exception e) {
 			e.printStackTrace();
+			return false;
+			
+//		The output file of a job which hasn't sent its end signal is never committed.
 		} finally {
-			try {
-				keysReader.close();
-				outputWriter.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+			if (!isEnded) {
+				outputFile.delete();
+			}
+		}
+		
+		return true;
+	}
+	
+	
+//	Throws an exception if the master has closed its connection before the end of the job: it has
+//	cancelled the job, or it is lost.
+	private void checkCancelled() throws IOException {
+		if (this.controlReader.isClosed()) {
+			throw new IOException("Job cancelled by the master");
+		}
+	}
+	
+	
+//	Returns true if the files are in the working directory of the daemon (or in one of its
+//	subdirectories), once the links and the ".." are resolved. Always true via SSH.
+	private boolean areInWorkingDirectory(List<File> files) {
+		if (this.workingDirectory == null) {
+			return true;
+		}
+		try {
+			String directoryPath = this.workingDirectory.getCanonicalPath() + File.separator;
+			for (File file : files) {
+				if (!file.getCanonicalPath().startsWith(directoryPath)) {
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	
+//	Returns the positions of the K most frequent keys of the CountMaps, from the most frequent 
+//	(keys with the same count are in the order of BlockFormat.compareKeys, like in the RMx file).
+//	A position is the number of the CountMap in the high bits and the index of the key in the low
+//	bits. The keys are selected with a heap of K positions whose head is the least frequent key,
+//	so the keys are never all sorted.
+	private static long[] selectTopKeys(final List<CountMap> keysCounts, int topK) {
+		
+		final Comparator<Long> ascendingOrder = new Comparator<Long>() {
+			@Override
+			public int compare(Long position1, Long position2) {
+				CountMap keysCounts1 = keysCounts.get((int) (position1 >>> 32));
+				CountMap keysCounts2 = keysCounts.get((int) (position2 >>> 32));
+				int index1 = (int) position1.longValue();
+				int index2 = (int) position2.longValue();
+				int countComparison = Long.compare(keysCounts1.getCount(index1), 
+						keysCounts2.getCount(index2));
+				return countComparison != 0 ? countComparison 
+						: BlockFormat.compareKeys(keysCounts2.getKeyBytes(), 
+								keysCounts2.getKeyOffset(index2), keysCounts2.getKeyLength(index2),
+								keysCounts1.getKeyBytes(), keysCounts1.getKeyOffset(index1), 
+								keysCounts1.getKeyLength(index1));
+			}
+		};
+		
+		PriorityQueue<Long> topPositions = new PriorityQueue<Long>(topK + 1, ascendingOrder);
+		for (int mapNumber = 0; mapNumber < keysCounts.size(); mapNumber++) {
+			for (int index = 0; index < keysCounts.get(mapNumber).size(); index++) {
+				long position = (long) mapNumber << 32 | index;
+				if (topPositions.size() < topK) {
+					topPositions.add(position);
+				} else if (ascendingOrder.compare(position, topPositions.peek()) > 0) {
+					topPositions.poll();
+					topPositions.add(position);
+				}
 			}
 		}
 		
+		List<Long> sortedPositions = new ArrayList<Long>(topPositions);
+		Collections.sort(sortedPositions, Collections.reverseOrder(ascendingOrder));
+		long[] sortedPositionsArray = new long[sortedPositions.size()];
+		for (int i = 0; i < sortedPositionsArray.length; i++) {
+			sortedPositionsArray[i] = sortedPositions.get(i);
+		}
+		return sortedPositionsArray;
 	}
 
 }
@@ -0,0 +1,146 @@
+
+// Modules to import.
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+
+// Class of the long-running Slave started with the DAEMON mode. It listens on a port and runs the
+// jobs sent by the JobLaunchers of the master in its own JVM, which stays warm between jobs. The
+// protocol is described in DaemonProtocol. A job is only run if the connection comes from the
+// master and sends the token of the user, and if it only reads and writes files in the working
+// directory of the daemon.
+public class SlaveDaemon implements Runnable {
+
+
+//	Maximum number of arguments of a task descriptor.
+	private static final int MAX_ARGUMENTS = 64;
+
+
+//	Fields.
+	private int port; // Port on which the daemon listens.
+	private List<InetAddress> masterAdresses; // Adresses of the masters, loopback only if empty.
+	private File workingDirectory; // Directory of the files that the jobs can read and write.
+
+
+//	Constructor. The working directory is the current directory of the daemon.
+	public SlaveDaemon(int port, List<InetAddress> masterAdresses) {
+
+		this.port = port;
+		this.masterAdresses = masterAdresses;
+		this.workingDirectory = new File(System.getProperty("user.dir"));
+	}
+
+
+//	Accepts connections until the daemon is killed. Each job runs in its own thread, so a slave
+//	can run a map job and a reduce job at the same time. The token is created before listening,
+//	so a master which can connect can read it.
+	@Override
+	public void run() {
+
+		ServerSocket serverSocket = null;
+		try {
+			DaemonProtocol.createToken();
+			serverSocket = new ServerSocket(this.port);
+			System.err.println("Slave daemon listening on port " + this.port);
+			while (true) {
+				Socket socket = serverSocket.accept();
+				if (!this.isMasterAdress(socket.getInetAddress())) {
+					System.err.println("Connection refused from " 
+							+ socket.getRemoteSocketAddress());
+					socket.close();
+					continue;
+				}
+				new Thread(new Connection(socket, this.workingDirectory)).start();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (serverSocket != null) {
+					serverSocket.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+
+//	Returns true if a connection from the given adress can send jobs: the adresses of the masters,
+//	or the machine itself if they aren't given.
+	private boolean isMasterAdress(InetAddress adress) {
+
+		if (this.masterAdresses.isEmpty()) {
+			return adress.isLoopbackAddress();
+		}
+		return this.masterAdresses.contains(adress);
+	}
+
+
+//	Class that reads the task descriptor of a connection and runs its job.
+	private static class Connection implements Runnable {
+
+		private Socket socket; // Connection with a JobLauncher.
+		private File workingDirectory; // Directory of the files that the job can read and write.
+
+		private Connection(Socket socket, File workingDirectory) {
+			this.socket = socket;
+			this.workingDirectory = workingDirectory;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+				
+//				Reads the task descriptor.
+				DataInputStream requestReader = new DataInputStream(new BufferedInputStream(
+						this.socket.getInputStream()));
+				if (requestReader.readInt() != DaemonProtocol.MAGIC_NUMBER) {
+					System.err.println("Wrong magic number from " 
+							+ this.socket.getRemoteSocketAddress());
+					return;
+				}
+				if (!DaemonProtocol.isValidToken(requestReader.readUTF())) {
+					System.err.println("Wrong token from " + this.socket.getRemoteSocketAddress());
+					return;
+				}
+				int numberOfArguments = requestReader.readInt();
+				if (numberOfArguments < 1 || numberOfArguments > MAX_ARGUMENTS) {
+					System.err.println("Wrong number of arguments: " + numberOfArguments);
+					return;
+				}
+				String[] args = new String[numberOfArguments];
+				for (int i = 0; i < args.length; i++) {
+					args[i] = requestReader.readUTF();
+				}
+				
+//				Runs the job, its outputs are sent on the connection instead of the standard
+//				output, and the messages of the master are read on it instead of the standard input.
+//				The connection is closed once the job has ended and its files are closed.
+				OutputStream output = new BufferedOutputStream(this.socket.getOutputStream(), 
+						1 << 16);
+				new Slave(args, requestReader, output, this.workingDirectory).startJob();
+				output.flush();
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					this.socket.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+
+// Modules to import.
+import java.io.IOException;
+
+
+// Job that counts the occurences of the words of a French text, without its common words. The
+// words are extracted by a Tokenizer, and each occurence is a couple (word, 1) summed by the
+// mappers and the reducers.
+public class WordCountJob extends Job {
+
+
+	@Override
+	public Mapper createMapper() {
+		return new WordCountMapper();
+	}
+
+	@Override
+	public Reducer getReducer() {
+		return SUM;
+	}
+
+
+//	Mapper of a map thread, with its own Tokenizer. The words given by the Tokenizer are Strings of
+//	letters in [a-z], which the Collector encodes without allocation.
+	private static class WordCountMapper implements Mapper {
+
+		private Tokenizer tokenizer = new Tokenizer();
+
+		@Override
+		public void map(byte[] buffer, int offset, int length, Collector collector)
+				throws IOException {
+			for (String word : this.tokenizer.tokenize(buffer, offset, length)) {
+				collector.collect(word, 1);
+			}
+		}
+	}
+
+}